@@ -0,0 +1,122 @@
+package hackthemarket;
+
+/**
+ * The activation function of the neurons,
+ * {@code 2 / (1 + exp(-4.9 z)) - 1}, which is {@code tanh(2.45 z)}. Each
+ * constant gives a different trade between speed and precision and states
+ * the largest absolute error it makes against the exact function.
+ * <p>
+ * The activation is chosen once per run, either through the
+ * {@code hackthemarket.activation} system property or by calling
+ * {@link #select(Activation)} before any network is compiled.
+ */
+public enum Activation {
+
+    /**
+     * The exact function through {@link Math#exp(double)}.
+     */
+    Exact(0.0) {
+        @Override
+        public double apply(double z) {
+            return 2 / (1 + Math.exp(-SLOPE * z)) - 1;
+        }
+    },
+    /**
+     * Linear interpolation in a table of {@value #TABLE_SIZE} intervals
+     * over {@code [-4, 4]}, clamped outside of it.
+     */
+    Table(3.0e-6) {
+        @Override
+        public double apply(double z) {
+            double x = (z + TABLE_RANGE) * TABLE_SCALE;
+            if (x <= 0) {
+                return TABLE[0];
+            } else if (x >= TABLE_SIZE) {
+                return TABLE[TABLE_SIZE];
+            }
+            int i = (int) x;
+            double f = x - i;
+            return TABLE[i] + f * (TABLE[i + 1] - TABLE[i]);
+        }
+    },
+    /**
+     * The (7, 6) Pade approximant of {@code tanh}, clamped to
+     * {@code [-1, 1]}.
+     */
+    Rational(1.0e-4) {
+        @Override
+        public double apply(double z) {
+            double x = HALF_SLOPE * z;
+            double x2 = x * x;
+            // Far out the polynomials overflow to infinity over infinity
+            if (x2 > 1e4) {
+                return x > 0 ? 1 : -1;
+            }
+            double p = x * (135135 + x2 * (17325 + x2 * (378 + x2)));
+            double q = 135135 + x2 * (62370 + x2 * (3150 + x2 * 28));
+            double y = p / q;
+            if (y > 1) {
+                return 1;
+            } else if (y < -1) {
+                return -1;
+            }
+            return y;
+        }
+    };
+
+    private static final double SLOPE = 4.9;
+
+    private static final double HALF_SLOPE = SLOPE / 2;
+
+    private static final int TABLE_SIZE = 4096;
+
+    private static final double TABLE_RANGE = 4.0;
+
+    private static final double TABLE_SCALE = TABLE_SIZE / (2 * TABLE_RANGE);
+
+    private static final double[] TABLE = new double[TABLE_SIZE + 1];
+
+    private static Activation current;
+
+    static {
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            TABLE[i] = Exact.apply(i / TABLE_SCALE - TABLE_RANGE);
+        }
+        String name = System.getProperty("hackthemarket.activation");
+        current = name == null ? Exact : valueOf(name);
+    }
+
+    /**
+     * @return the activation used by newly compiled networks
+     */
+    public static Activation current() {
+        return current;
+    }
+
+    /**
+     * @param activation the activation for newly compiled networks
+     */
+    public static void select(Activation activation) {
+        current = activation;
+    }
+
+    private final double error;
+
+    private Activation(double error) {
+        this.error = error;
+    }
+
+    /**
+     * @return the largest absolute error against the exact function
+     */
+    public double error() {
+        return error;
+    }
+
+    /**
+     * @param z the signal received by a neuron
+     * @return the activated signal, in {@code [-1, 1]}
+     */
+    public abstract double apply(double z);
+
+}
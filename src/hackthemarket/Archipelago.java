@@ -0,0 +1,136 @@
+package hackthemarket;
+
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Evolves several independent populations at once, one per thread. Each
+ * island has its own genetic algorithm and innovation history and shares
+ * nothing with the others but the champions that migrate between them on a
+ * fixed schedule. A migrant is renumbered in the innovation space of the
+ * island it arrives at and competes there as a parent in the next
+ * generation.
+ */
+public class Archipelago {
+
+    private final Population[] islands;
+
+    private final Evaluator[] evaluators;
+
+    private final Migration migration;
+
+    private final int interval;
+
+    private Genome champion;
+
+    /**
+     * @param islands the initial population of each island
+     * @param environment the environment every island is evaluated in
+     * @param threads the number of evaluation threads of each island
+     * @param migration the route of the migrants
+     * @param interval the number of generations between migrations
+     */
+    public Archipelago(Population[] islands, Environment environment,
+            int threads, Migration migration, int interval) {
+        this.islands = islands.clone();
+        this.migration = migration;
+        this.interval = interval;
+        evaluators = new Evaluator[islands.length];
+        for (int i = 0; i < islands.length; i++) {
+            evaluators[i] = new Evaluator(environment, threads);
+        }
+    }
+
+    /**
+     * @return the current population of each island
+     */
+    public Population[] islands() {
+        return islands.clone();
+    }
+
+    /**
+     * @return the fittest genome evaluated on any island so far, or
+     * {@code null}
+     */
+    public synchronized Genome champion() {
+        return champion;
+    }
+
+    private synchronized void record(Genome best) {
+        if (champion == null || best.getFitness() > champion.getFitness()) {
+            champion = best;
+        }
+    }
+
+    /**
+     * Evaluates and evolves every island for a number of generations,
+     * leaving each island with an unevaluated population.
+     *
+     * @param generations the number of generations
+     */
+    public void evolve(final int generations) {
+        ExecutorService executor = Executors.newFixedThreadPool(islands.length);
+        CompletionService<Void> tasks = new ExecutorCompletionService<>(executor);
+        try {
+            for (int i = 0; i < islands.length; i++) {
+                final int island = i;
+                tasks.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        evolve(island, generations);
+                    }
+                }, null);
+            }
+            // A failed island would leave its neighbour waiting for
+            // migrants, so stop at the first failure
+            for (int i = 0; i < islands.length; i++) {
+                tasks.take().get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evolution interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Evolution failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void evolve(int island, int generations) {
+        Population p = islands[island];
+        for (int i = 1; i <= generations; i++) {
+            evaluators[island].evaluate(p);
+            record(p.champion());
+            if (interval > 0 && (p.generation() + 1) % interval == 0) {
+                migrate(island, p);
+            }
+            p = p.evolve();
+            islands[island] = p;
+        }
+    }
+
+    private void migrate(int island, Population p) {
+        Genome champion = p.champion();
+        Genome emigrant = champion.copy();
+        emigrant.setFitness(champion.getFitness());
+        List<Genome> emigrants = Util.newList();
+        emigrants.add(emigrant);
+        try {
+            p.immigrate(migration.exchange(island, emigrants));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Migration interrupted", ex);
+        }
+    }
+
+    public void shutdown() {
+        for (Evaluator evaluator : evaluators) {
+            evaluator.shutdown();
+        }
+    }
+
+}
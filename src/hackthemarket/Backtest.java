@@ -0,0 +1,327 @@
+package hackthemarket;
+
+import static hackthemarket.Allele.Bias;
+import static hackthemarket.Allele.Input;
+import static hackthemarket.Allele.Output;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Trades a range of daily bars with a network, one decision per bar. Each
+ * bar the network is shown the row of the bar in a {@link FeatureMatrix}
+ * and the position it holds, and its first output, clamped to
+ * {@code [-1, 1]}, is the position held until the next close, from fully
+ * short to fully long.
+ * <p>
+ * Every change of position costs a fraction of the amount traded. The
+ * fitness is the growth of the account after costs, discounted by its
+ * deepest drawdown:
+ * <pre>
+ * fitness = 100 exp(log growth - DRAWDOWN_WEIGHT max log drawdown)
+ * </pre>
+ * so that holding no position scores 100. The features and returns are
+ * computed once per dataset and shared read-only by every evaluation and
+ * by every backtest over a part of the same bars.
+ */
+public class Backtest implements Environment {
+
+    /**
+     * The cost of trading, as a fraction of the amount traded.
+     */
+    public static final double DEFAULT_COST = 0.0005;
+
+    public static final double DRAWDOWN_WEIGHT = 0.5;
+
+    /**
+     * @return the seed genome, with an input per feature, an input for the
+     * position, one output and a bias
+     */
+    public static Genome seed(GeneticAlgorithm GA, Bound W,
+            SplittableRandom rng, int features) {
+        List<Node> nodes = Util.newList();
+        List<Link> links = Util.newList();
+        for (int i = 0; i <= features; i++) {
+            nodes.add(new Node(i, Input));
+        }
+        int out = features + 1;
+        int bias = features + 2;
+        nodes.add(new Node(out, Output));
+        nodes.add(new Node(bias, Bias));
+        links.add(new Link(bias, out, W.rand(rng)));
+        for (int i = 0; i < features; i++) {
+            links.add(new Link(i, out, W.rand(rng)));
+        }
+        GA.innovate(links);
+        return new Genome(nodes, links);
+    }
+
+    private final FeatureMatrix features;
+
+    private final double[] returns;
+
+    private final int from;
+
+    private final int to;
+
+    private final double cost;
+
+    /**
+     * Trades every bar of the data with the default indicators.
+     */
+    public Backtest(MarketData data) {
+        this(FeatureMatrix.compute(data, Indicator.defaults()));
+    }
+
+    /**
+     * Trades every bar from which all the features are known.
+     */
+    public Backtest(FeatureMatrix features) {
+        this(features, features.start(), features.rows(), DEFAULT_COST);
+    }
+
+    /**
+     * @param features the features of the bars
+     * @param from the index of the first bar traded
+     * @param to the index after the last bar traded
+     * @param cost the cost of trading, as a fraction of the amount traded
+     */
+    public Backtest(FeatureMatrix features, int from, int to, double cost) {
+        if (from < features.start() || to > features.rows()
+                || to - from < 2) {
+            throw new IllegalArgumentException("Cannot trade bars " + from
+                    + " to " + to + " of " + features);
+        }
+        this.features = features;
+        this.from = from;
+        this.to = to;
+        this.cost = cost;
+        returns = features.data().returns();
+    }
+
+    /**
+     * @return the number of inputs of the networks traded with
+     */
+    public int numInputs() {
+        return features.columns() + 1;
+    }
+
+    public FeatureMatrix features() {
+        return features;
+    }
+
+    public MarketData data() {
+        return features.data();
+    }
+
+    @Override
+    public double evaluate(Genome genome, NeuralNetwork brain,
+            SplittableRandom rng) {
+        return run(brain).fitness();
+    }
+
+    /**
+     * Trades the bars with a network.
+     *
+     * @return the performance of the network
+     */
+    public Performance run(NeuralNetwork brain) {
+        check(brain);
+        final double[] F = features.values();
+        final int columns = features.columns();
+        double[] S = new double[1];
+        double[] Y = new double[brain.numOutputs()];
+        Account account = new Account();
+        for (int t = from; t < to - 1 && account.isSolvent(); t++) {
+            S[0] = account.position;
+            brain.push(F, t * columns, S, Y);
+            account.hold(Y, returns[t + 1], cost);
+        }
+        return account.performance(to - 1 - from);
+    }
+
+    /**
+     * Trades the bars with many networks at once through a
+     * {@link NetworkBatch}, every network being shown the same row of
+     * features followed by its own position. Each network performs as it
+     * would in {@link #run(NeuralNetwork)} from rest.
+     *
+     * @return the performance of each network, in order
+     */
+    public Performance[] run(List<NeuralNetwork> brains) {
+        int n = brains.size();
+        for (NeuralNetwork brain : brains) {
+            check(brain);
+        }
+        NetworkBatch batch = new NetworkBatch(brains);
+        final double[] F = features.values();
+        final int columns = features.columns();
+        double[][] S = new double[n][1];
+        double[][] Y = new double[n][];
+        Account[] accounts = new Account[n];
+        for (int i = 0; i < n; i++) {
+            Y[i] = new double[brains.get(i).numOutputs()];
+            accounts[i] = new Account();
+        }
+        int solvent = n;
+        for (int t = from; t < to - 1 && solvent > 0; t++) {
+            for (int i = 0; i < n; i++) {
+                S[i][0] = accounts[i].position;
+            }
+            batch.push(F, t * columns, S, Y);
+            for (int i = 0; i < n; i++) {
+                // A ruined account stays ruined, so it is not traded on
+                if (accounts[i].isSolvent()) {
+                    accounts[i].hold(Y[i], returns[t + 1], cost);
+                    if (!accounts[i].isSolvent()) {
+                        solvent--;
+                    }
+                }
+            }
+        }
+        Performance[] performances = new Performance[n];
+        for (int i = 0; i < n; i++) {
+            performances[i] = accounts[i].performance(to - 1 - from);
+        }
+        return performances;
+    }
+
+    private void check(NeuralNetwork brain) {
+        if (brain.numInputs() != numInputs()) {
+            throw new IllegalArgumentException("Expected " + numInputs()
+                    + " inputs but the network has " + brain.numInputs());
+        }
+    }
+
+    /**
+     * The account of one network as it trades, in log terms.
+     */
+    private static final class Account {
+
+        private double position = 0.0;
+
+        private double equity = 0.0;
+
+        private double peak = 0.0;
+
+        private double drawdown = 0.0;
+
+        private double turnover = 0.0;
+
+        private int trades = 0;
+
+        private boolean isSolvent() {
+            return equity != Double.NEGATIVE_INFINITY;
+        }
+
+        /**
+         * Moves to the position chosen by the outputs of the network and
+         * holds it from this close to the next.
+         *
+         * @param Y the outputs of the network
+         * @param r the log return to the next close
+         */
+        private void hold(double[] Y, double r, double cost) {
+            double target = Y.length == 0 ? 0.0
+                    : Math.max(-1.0, Math.min(1.0, Y[0]));
+            double traded = Math.abs(target - position);
+            if (traded > 0.0) {
+                trades++;
+                turnover += traded;
+            }
+            position = target;
+            double growth = 1.0 + position * Math.expm1(r) - cost * traded;
+            equity += growth > 0.0 ? Math.log(growth)
+                    : Double.NEGATIVE_INFINITY;
+            if (equity > peak) {
+                peak = equity;
+            } else if (peak - equity > drawdown) {
+                drawdown = peak - equity;
+            }
+        }
+
+        private Performance performance(int bars) {
+            return new Performance(equity, drawdown, turnover, trades, bars);
+        }
+
+    }
+
+    /**
+     * The result of trading a range of bars.
+     */
+    public static final class Performance {
+
+        private final double growth;
+
+        private final double drawdown;
+
+        private final double turnover;
+
+        private final int trades;
+
+        private final int bars;
+
+        Performance(double growth, double drawdown, double turnover,
+                int trades, int bars) {
+            this.growth = growth;
+            this.drawdown = drawdown;
+            this.turnover = turnover;
+            this.trades = trades;
+            this.bars = bars;
+        }
+
+        /**
+         * @return the log growth of the account after costs
+         */
+        public double growth() {
+            return growth;
+        }
+
+        /**
+         * @return the largest log fall of the account from a previous peak
+         */
+        public double drawdown() {
+            return drawdown;
+        }
+
+        /**
+         * @return the total change of position, in account sizes
+         */
+        public double turnover() {
+            return turnover;
+        }
+
+        /**
+         * @return the number of bars the position changed on
+         */
+        public int trades() {
+            return trades;
+        }
+
+        /**
+         * @return the number of bars a position was held over
+         */
+        public int bars() {
+            return bars;
+        }
+
+        /**
+         * @return the fitness of the performance, 100 for holding nothing
+         */
+        public double fitness() {
+            if (growth == Double.NEGATIVE_INFINITY) {
+                return 0.0;
+            }
+            return 100.0 * Math.exp(growth - DRAWDOWN_WEIGHT * drawdown);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "return=%.2f%% drawdown=%.2f%% turnover=%.1f trades=%d/%d",
+                    100 * Math.expm1(growth), 100 * -Math.expm1(-drawdown),
+                    turnover, trades, bars);
+        }
+
+    }
+
+}
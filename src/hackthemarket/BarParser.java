@@ -0,0 +1,211 @@
+package hackthemarket;
+
+import java.io.IOException;
+
+/**
+ * Parses one CSV line of a bar at a time, in place in the buffer it was
+ * read into, and keeps the values of the last bar until the next line. A
+ * line is {@code date, open, high, low, close}, or {@code date, price} for
+ * a tick, which is taken as a bar with all four prices equal. The date is
+ * {@code MM/dd/yy} or {@code MM/dd/yyyy}, with a two-digit year taken as
+ * 1970 to 2069. Every value is built from its digits, so nothing is
+ * allocated unless the line is malformed.
+ */
+final class BarParser {
+
+    private static final int FIELDS = 5;
+
+    private static final int MAX_DIGITS = 18;
+
+    private static final double[] POWERS = new double[MAX_DIGITS + 1];
+
+    static {
+        POWERS[0] = 1.0;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = 10.0 * POWERS[i - 1];
+        }
+    }
+
+    /**
+     * @return the epoch day of a proleptic Gregorian date
+     */
+    static int epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = year % 4 == 0
+                    && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11
+                ? 30 : 31;
+    }
+
+    private int line;
+
+    private int cursor;
+
+    int day;
+
+    double open;
+
+    double high;
+
+    double low;
+
+    double close;
+
+    /**
+     * The bounds of the date of the last bar in the buffer it was parsed
+     * from.
+     */
+    int dateFrom;
+
+    int dateTo;
+
+    BarParser() {
+        line = 0;
+    }
+
+    /**
+     * @return the number of lines parsed
+     */
+    int line() {
+        return line;
+    }
+
+    /**
+     * Parses a line, without its line break. A blank line and a first line
+     * that does not start with a digit, which is taken as a header, are
+     * skipped.
+     *
+     * @return whether the line was a bar
+     */
+    boolean parse(byte[] b, int from, int to) throws IOException {
+        line++;
+        while (to > from && b[to - 1] <= ' ') {
+            to--;
+        }
+        while (from < to && b[from] <= ' ') {
+            from++;
+        }
+        if (from == to || line == 1 && (b[from] < '0' || b[from] > '9')) {
+            return false;
+        }
+        cursor = from;
+        dateFrom = from;
+        int month = integer(b, to, '/');
+        int day = integer(b, to, '/');
+        int year = integer(b, to, ',');
+        dateTo = cursor - 1;
+        while (dateTo > dateFrom && b[dateTo - 1] <= ' ') {
+            dateTo--;
+        }
+        if (year < 100) {
+            year += year < 70 ? 2000 : 1900;
+        }
+        if (month < 1 || month > 12 || day < 1
+                || day > lengthOfMonth(year, month)) {
+            throw new IOException("Invalid date on line " + line);
+        }
+        this.day = epochDay(year, month, day);
+        open = number(b, to);
+        if (cursor == to) {
+            high = low = close = open;
+            return true;
+        }
+        high = next(b, to);
+        low = next(b, to);
+        close = next(b, to);
+        if (cursor != to) {
+            throw new IOException("Expected " + FIELDS + " fields on line "
+                    + line);
+        }
+        return true;
+    }
+
+    private double next(byte[] b, int to) throws IOException {
+        if (cursor == to) {
+            throw new IOException("Expected " + FIELDS + " fields on line "
+                    + line);
+        }
+        return number(b, to);
+    }
+
+    private int integer(byte[] b, int to, char separator) throws IOException {
+        int i = skip(b, cursor, to);
+        int value = 0;
+        int digits = 0;
+        while (i < to && b[i] >= '0' && b[i] <= '9') {
+            value = 10 * value + (b[i++] - '0');
+            digits++;
+        }
+        i = skip(b, i, to);
+        if (digits == 0 || digits > 4 || i == to || b[i] != separator) {
+            throw new IOException("Malformed date on line " + line);
+        }
+        cursor = i + 1;
+        return value;
+    }
+
+    /**
+     * Parses a number and the comma after it, if any.
+     */
+    private double number(byte[] b, int to) throws IOException {
+        int i = skip(b, cursor, to);
+        boolean negative = i < to && b[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            int d = b[i] - '0';
+            if (d >= 0 && d <= 9) {
+                mantissa = 10 * mantissa + d;
+                digits++;
+                if (point) {
+                    scale++;
+                }
+            } else if (b[i] == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0 || digits > MAX_DIGITS) {
+            throw new IOException("Malformed price on line " + line);
+        }
+        i = skip(b, i, to);
+        if (i < to) {
+            if (b[i] != ',') {
+                throw new IOException("Malformed price on line " + line);
+            }
+            i = skip(b, i + 1, to);
+            if (i == to) {
+                throw new IOException("Expected " + FIELDS
+                        + " fields on line " + line);
+            }
+        }
+        cursor = i;
+        double value = mantissa / POWERS[scale];
+        return negative ? -value : value;
+    }
+
+    private static int skip(byte[] b, int i, int to) {
+        while (i < to && (b[i] == ' ' || b[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+}
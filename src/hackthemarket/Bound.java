@@ -5,8 +5,8 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
 
 public class Bound implements Serializable {
 
@@ -19,26 +19,26 @@ public class Bound implements Serializable {
         this.upper = upper;
     }
 
-    public double rand() {
-        return Math.random() * (upper - lower) + lower;
+    public double rand(SplittableRandom rng) {
+        return rng.nextDouble() * (upper - lower) + lower;
     }
 
-    public int randInt() {
-        Random rng = new Random();
+    public int randInt(SplittableRandom rng) {
         return rng.nextInt((int) (upper - lower) + 1) + (int) lower;
     }
 
-    public Iterator<Integer> randString(int size, boolean repeat) {
+    public Iterator<Integer> randString(int size, boolean repeat,
+            SplittableRandom rng) {
         if (repeat) {
             List<Integer> values = new ArrayList<>(size);
             for (int i = 0; i < size; i++) {
-                values.add(randInt());
+                values.add(randInt(rng));
             }
             return values.iterator();
         } else {
             Set<Integer> values = new LinkedHashSet<>(size);
             while (values.size() < size) {
-                values.add(randInt());
+                values.add(randInt(rng));
             }
             return values.iterator();
         }
@@ -0,0 +1,105 @@
+package hackthemarket;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Breeds a batch of children in parallel. Each child is spawned on a
+ * fork-join worker with its own random stream, and the new structural
+ * genes of the children are then numbered in batch order. The innovation
+ * history is therefore only touched by one thread, identical structural
+ * mutations within the batch share a number, and the children do not
+ * depend on how the work was scheduled.
+ */
+public class Breeding {
+
+    private static final int GRAIN = 4;
+
+    private final ForkJoinPool pool;
+
+    public Breeding() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public Breeding(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param GA the genetic algorithm
+     * @param mothers the first parent of each child
+     * @param fathers the second parent of each child, which is crossed
+     * over with the first whenever they are of different species
+     * @param rng the stream each child's stream is split from, in order
+     * @return the children, in order
+     */
+    public List<Genome> breed(GeneticAlgorithm GA, List<Genome> mothers,
+            List<Genome> fathers, SplittableRandom rng) {
+        Genome[] g1 = mothers.toArray(new Genome[mothers.size()]);
+        Genome[] g2 = fathers.toArray(new Genome[fathers.size()]);
+        Genome[] children = new Genome[g1.length];
+        SplittableRandom[] streams = new SplittableRandom[g1.length];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = rng.split();
+        }
+        pool.invoke(new Spawn(GA, g1, g2, streams, children,
+                0, children.length));
+        List<Genome> genomes = Util.newList();
+        for (Genome child : children) {
+            GA.innovate(child);
+            genomes.add(child);
+        }
+        return genomes;
+    }
+
+    private static final class Spawn extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final GeneticAlgorithm GA;
+
+        private final Genome[] mothers;
+
+        private final Genome[] fathers;
+
+        private final SplittableRandom[] streams;
+
+        private final Genome[] children;
+
+        private final int from;
+
+        private final int to;
+
+        private Spawn(GeneticAlgorithm GA, Genome[] mothers,
+                Genome[] fathers, SplittableRandom[] streams,
+                Genome[] children, int from, int to) {
+            this.GA = GA;
+            this.mothers = mothers;
+            this.fathers = fathers;
+            this.streams = streams;
+            this.children = children;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                for (int i = from; i < to; i++) {
+                    children[i] = GA.spawn(mothers[i], fathers[i],
+                            mothers[i].species != fathers[i].species,
+                            streams[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Spawn(GA, mothers, fathers, streams, children,
+                        from, mid),
+                        new Spawn(GA, mothers, fathers, streams, children,
+                                mid, to));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package hackthemarket;
+
+import static hackthemarket.Allele.Bias;
+import static hackthemarket.Allele.Input;
+import static hackthemarket.Allele.Output;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The seeker and target chase, run headless with a fixed time step.
+ */
+public class Chase implements Environment {
+
+    public static final int DEFAULT_STEP = 25;
+
+    /**
+     * @return the seed genome, with four inputs, three outputs and a bias
+     */
+    public static Genome seed(GeneticAlgorithm GA, Bound W,
+            SplittableRandom rng) {
+        Node in1 = new Node(0, Input);
+        Node in2 = new Node(1, Input);
+        Node in3 = new Node(2, Input);
+        Node in4 = new Node(3, Input);
+        Node out1 = new Node(4, Output);
+        Node out2 = new Node(5, Output);
+        Node out3 = new Node(6, Output);
+        Node bias1 = new Node(7, Bias);
+
+        List<Node> nodes = Util.newList();
+        nodes.add(in1);
+        nodes.add(in2);
+        nodes.add(in3);
+        nodes.add(in4);
+        nodes.add(out1);
+        nodes.add(out2);
+        nodes.add(out3);
+        nodes.add(bias1);
+
+        List<Link> links = Util.newList();
+        links.add(new Link(7, 4, 0.5));
+        links.add(new Link(0, 6, W.rand(rng)));
+        links.add(new Link(1, 5, W.rand(rng)));
+        links.add(new Link(2, 5, W.rand(rng)));
+        links.add(new Link(3, 4, W.rand(rng)));
+
+        GA.innovate(links);
+        return new Genome(nodes, links);
+    }
+
+    private final int step;
+
+    private final TerminationPolicy termination;
+
+    public Chase() {
+        this(DEFAULT_STEP);
+    }
+
+    /**
+     * @param step the time step in milliseconds
+     */
+    public Chase(int step) {
+        this(step, TerminationPolicy.all());
+    }
+
+    /**
+     * @param step the time step in milliseconds
+     * @param termination the rules that end hopeless episodes early
+     */
+    public Chase(int step, TerminationPolicy termination) {
+        this.step = step;
+        this.termination = termination;
+    }
+
+    /**
+     * @return the rules that end hopeless episodes early, and their cuts
+     */
+    public TerminationPolicy termination() {
+        return termination;
+    }
+
+    @Override
+    public double evaluate(Genome genome, NeuralNetwork brain,
+            SplittableRandom rng) {
+        Episode episode = new Episode(brain, rng);
+        double elite = genome.species == null ? Double.NaN
+                : genome.species.ancestry();
+        while (!episode.step(step) && !termination.apply(episode, elite)) {
+        }
+        termination.finish();
+        return episode.fitness();
+    }
+
+}
@@ -0,0 +1,543 @@
+package hackthemarket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The binary checkpoint format of a population. A checkpoint starts with a
+ * fixed header, the magic number, the format version and the flags, which
+ * is never compressed. The body follows, compressed with GZIP if the flags
+ * say so:
+ * <pre>
+ * population  size, generation, replacements, seed
+ * algorithm   weight bound, selection, innovation registry
+ * species     count, then per species its history and its genomes
+ * genome      fitness, nodes, then its links as packed arrays
+ * </pre>
+ * Every value is written big-endian through NIO channels with a single
+ * buffer, and no class or field names are stored, so the format does not
+ * change with the classes that are saved.
+ */
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x48544D50;
+
+    private static final int VERSION = 1;
+
+    private static final int COMPRESSED = 1;
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final Allele[] ALLELES = Allele.values();
+
+    private static final Selection[] SELECTIONS = Selection.values();
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Writes a population to a file, replacing it.
+     *
+     * @param compress whether to compress the body
+     */
+    public static void write(Population p, Path path, boolean compress)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(p, channel, compress);
+        }
+    }
+
+    /**
+     * Writes a population to a channel, leaving the channel open.
+     *
+     * @param compress whether to compress the body
+     */
+    public static void write(Population p, WritableByteChannel channel,
+            boolean compress) throws IOException {
+        writeHeader(channel, compress);
+        if (compress) {
+            GZIPOutputStream gzip = new GZIPOutputStream(
+                    Channels.newOutputStream(channel), BUFFER_SIZE);
+            Output out = new Output(Channels.newChannel(gzip));
+            writeBody(p, out);
+            out.flush();
+            gzip.finish();
+        } else {
+            Output out = new Output(channel);
+            writeBody(p, out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Encodes a population in memory, uncompressed. The snapshot no longer
+     * depends on the population, which may go on changing while the
+     * snapshot is written out with {@link #write(ByteBuffer,
+     * WritableByteChannel, boolean)}.
+     *
+     * @return the checkpoint, ready to be read
+     */
+    public static ByteBuffer snapshot(Population p) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+        write(p, Channels.newChannel(bytes), false);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Writes a snapshot to a channel, leaving the channel open.
+     *
+     * @param snapshot a checkpoint made by {@link #snapshot(Population)},
+     * which is not consumed
+     * @param compress whether to compress the body
+     */
+    public static void write(ByteBuffer snapshot, WritableByteChannel channel,
+            boolean compress) throws IOException {
+        ByteBuffer body = snapshot.duplicate();
+        body.position(body.position() + HEADER_SIZE);
+        writeHeader(channel, compress);
+        if (compress) {
+            GZIPOutputStream gzip = new GZIPOutputStream(
+                    Channels.newOutputStream(channel), BUFFER_SIZE);
+            WritableByteChannel out = Channels.newChannel(gzip);
+            while (body.hasRemaining()) {
+                out.write(body);
+            }
+            gzip.finish();
+        } else {
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+        }
+    }
+
+    private static void writeHeader(WritableByteChannel channel,
+            boolean compress) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(compress ? COMPRESSED : 0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * @return the population in a checkpoint file
+     */
+    public static Population read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * @return the population read from a channel, which is left open
+     */
+    public static Population read(ReadableByteChannel channel)
+            throws IOException {
+        Input header = new Input(channel, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a population checkpoint");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        int flags = header.getInt();
+        if ((flags & COMPRESSED) != 0) {
+            GZIPInputStream gzip = new GZIPInputStream(
+                    Channels.newInputStream(channel), BUFFER_SIZE);
+            return readBody(new Input(Channels.newChannel(gzip), BUFFER_SIZE));
+        } else {
+            return readBody(new Input(channel, BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * @return a genome in the layout it has within a checkpoint
+     */
+    static byte[] encode(Genome g) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Output out = new Output(Channels.newChannel(bytes));
+        writeGenome(g, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes a genome encoded by {@link #encode(Genome)}
+     * @return the genome
+     */
+    static Genome decode(ByteBuffer bytes) throws IOException {
+        Input in = new Input(new BufferChannel(bytes), bytes.remaining());
+        return readGenome(in);
+    }
+
+    private static void writeBody(Population p, Output out)
+            throws IOException {
+        out.putInt(p.size());
+        out.putInt(p.generation());
+        out.putLong(p.replacements());
+        out.putLong(p.rng().seed());
+
+        GeneticAlgorithm GA = p.GA();
+        out.putDouble(GA.weights().lower);
+        out.putDouble(GA.weights().upper);
+        out.putInt(GA.selection().ordinal());
+        InnovationRegistry history = GA.history();
+        int entries = history.size();
+        long[] keys = new long[entries];
+        int[] values = new int[entries];
+        int[] stamps = new int[entries];
+        history.export(keys, values, stamps);
+        out.putInt(history.horizon());
+        out.putInt(history.generation());
+        out.putInt(history.top());
+        out.putInt(entries);
+        for (int j = 0; j < entries; j++) {
+            out.putLong(keys[j]);
+            out.putInt(values[j]);
+            out.putInt(stamps[j]);
+        }
+
+        List<Species> species = p.species();
+        out.putInt(species.size());
+        for (Species s : species) {
+            out.putDouble(s.ancestry());
+            out.putDouble(s.top());
+            out.putInt(s.staleness());
+            out.putInt(s.size());
+            for (int i = 0; i < s.size(); i++) {
+                writeGenome(s.get(i), out);
+            }
+        }
+    }
+
+    private static void writeGenome(Genome g, Output out) throws IOException {
+        out.putDouble(g.getFitness());
+        List<Node> nodes = g.nodes();
+        out.putInt(nodes.size());
+        for (Node node : nodes) {
+            out.putInt(node.key());
+            out.putDouble(node.threshold());
+            out.putByte(node.allele().ordinal());
+        }
+        int n = g.numLinks();
+        out.putInt(n);
+        for (int i = 0; i < n; i++) {
+            out.putInt(g.innov(i));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putInt(g.in(i));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putInt(g.out(i));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putDouble(g.weight(i));
+        }
+        for (int i = 0; i < n; i += 64) {
+            long word = 0;
+            for (int j = i; j < n && j < i + 64; j++) {
+                if (g.isEnabled(j)) {
+                    word |= 1L << (j - i);
+                }
+            }
+            out.putLong(word);
+        }
+    }
+
+    /**
+     * Reads a population, checking every count and index against what the
+     * rest of the checkpoint allows, so that a corrupt checkpoint fails
+     * with an {@link IOException} rather than building a broken population.
+     */
+    private static Population readBody(Input in) throws IOException {
+        int size = in.getInt();
+        int generation = in.getInt();
+        long replacements = in.getLong();
+        check(size > 0 && generation >= 0 && replacements >= 0,
+                "population");
+        Rng rng = new Rng(in.getLong());
+
+        Bound W = new Bound(in.getDouble(), in.getDouble());
+        check(W.lower <= W.upper, "weight bound");
+        int ordinal = in.getInt();
+        check(ordinal >= 0 && ordinal < SELECTIONS.length, "selection");
+        Selection selection = SELECTIONS[ordinal];
+        int horizon = in.getInt();
+        int historyGeneration = in.getInt();
+        int top = in.getInt();
+        int entries = in.getInt();
+        check(horizon > 0 && historyGeneration >= 0 && top >= -1
+                && entries >= 0, "innovation history");
+        // Grow the entries as they are read, so that a corrupt count fails
+        // at the end of the input rather than on allocation
+        int capacity = Math.min(entries, BUFFER_SIZE);
+        long[] keys = new long[capacity];
+        int[] values = new int[capacity];
+        int[] stamps = new int[capacity];
+        for (int j = 0; j < entries; j++) {
+            if (j == keys.length) {
+                capacity = (int) Math.min(entries, 2L * capacity);
+                keys = Arrays.copyOf(keys, capacity);
+                values = Arrays.copyOf(values, capacity);
+                stamps = Arrays.copyOf(stamps, capacity);
+            }
+            keys[j] = in.getLong();
+            values[j] = in.getInt();
+            stamps[j] = in.getInt();
+            check(values[j] >= 0 && stamps[j] <= historyGeneration,
+                    "innovation entry");
+        }
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        for (int j = 1; j < sorted.length; j++) {
+            check(sorted[j] != sorted[j - 1], "innovation entry");
+        }
+        InnovationRegistry history = new InnovationRegistry(horizon,
+                historyGeneration, top, keys, values, stamps);
+        GeneticAlgorithm GA = new GeneticAlgorithm(W, history, selection);
+
+        int numSpecies = in.getInt();
+        check(numSpecies >= 0, "species count");
+        List<Species> species = Util.newList();
+        long genomes = 0;
+        for (int s = 0; s < numSpecies; s++) {
+            double ancestry = in.getDouble();
+            double topFitness = in.getDouble();
+            int staleness = in.getInt();
+            int members = in.getInt();
+            check(staleness >= 0 && members > 0, "species");
+            Species specie = new Species(ancestry, topFitness, staleness);
+            for (int i = 0; i < members; i++) {
+                specie.add(readGenome(in));
+            }
+            species.add(specie);
+            genomes += members;
+        }
+        // A population holds at least as many genomes as its size
+        check(size <= genomes, "population size");
+        return new Population(size, species, GA, rng, generation,
+                replacements);
+    }
+
+    private static Genome readGenome(Input in) throws IOException {
+        double fitness = in.getDouble();
+        int numNodes = in.getInt();
+        check(numNodes >= 0, "node count");
+        List<Node> nodes = Util.newList();
+        Set<Integer> keys = Util.newSet();
+        for (int i = 0; i < numNodes; i++) {
+            int key = in.getInt();
+            double threshold = in.getDouble();
+            int allele = in.getByte();
+            check(allele >= 0 && allele < ALLELES.length && keys.add(key),
+                    "node");
+            nodes.add(new Node(key, threshold, ALLELES[allele]));
+        }
+        int n = in.getInt();
+        check(n >= 0, "link count");
+        int[] innovations = getInts(in, n);
+        for (int i = 0; i < n; i++) {
+            check(innovations[i] >= 0
+                    && (i == 0 || innovations[i] >= innovations[i - 1]),
+                    "innovation number");
+        }
+        int[] inputs = getInts(in, n);
+        int[] outputs = getInts(in, n);
+        for (int i = 0; i < n; i++) {
+            check(keys.contains(inputs[i]) && keys.contains(outputs[i]),
+                    "link");
+        }
+        Genome g = new Genome(nodes, n);
+        for (int i = 0; i < n; i++) {
+            g.addLink(inputs[i], outputs[i], innovations[i],
+                    in.getDouble(), false);
+        }
+        for (int i = 0; i < n; i += 64) {
+            long word = in.getLong();
+            for (int j = i; j < n && j < i + 64; j++) {
+                g.setEnabled(j, (word >>> (j - i) & 1) != 0);
+            }
+        }
+        g.setFitness(fitness);
+        return g;
+    }
+
+    /**
+     * Reads a number of ints, growing the array as they are read.
+     */
+    private static int[] getInts(Input in, int n) throws IOException {
+        int[] values = new int[Math.min(n, BUFFER_SIZE)];
+        for (int i = 0; i < n; i++) {
+            if (i == values.length) {
+                values = Arrays.copyOf(values, (int) Math.min(n, 2L * i));
+            }
+            values[i] = in.getInt();
+        }
+        return values;
+    }
+
+    private static void check(boolean valid, String what) throws IOException {
+        if (!valid) {
+            throw new IOException("Corrupt checkpoint: invalid " + what);
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer as a channel.
+     */
+    private static final class BufferChannel implements ReadableByteChannel {
+
+        private final ByteBuffer source;
+
+        private BufferChannel(ByteBuffer source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), source.remaining());
+            ByteBuffer slice = source.slice();
+            slice.limit(n);
+            dst.put(slice);
+            source.position(source.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    /**
+     * Buffers the values written to a channel.
+     */
+    private static final class Output {
+
+        private final WritableByteChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private Output(WritableByteChannel channel) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void putByte(int value) throws IOException {
+            reserve(1);
+            buffer.put((byte) value);
+        }
+
+        private void putInt(int value) throws IOException {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            reserve(8);
+            buffer.putLong(value);
+        }
+
+        private void putDouble(double value) throws IOException {
+            reserve(8);
+            buffer.putDouble(value);
+        }
+
+    }
+
+    /**
+     * Buffers the values read from a channel. The buffer never reads
+     * beyond its capacity, so a small input reads no more than the header.
+     */
+    private static final class Input {
+
+        private final ReadableByteChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private Input(ReadableByteChannel channel, int capacity) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocate(capacity);
+            buffer.flip();
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Truncated checkpoint");
+                }
+            }
+            buffer.flip();
+        }
+
+        private byte getByte() throws IOException {
+            require(1);
+            return buffer.get();
+        }
+
+        private int getInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        private long getLong() throws IOException {
+            require(8);
+            return buffer.getLong();
+        }
+
+        private double getDouble() throws IOException {
+            require(8);
+            return buffer.getDouble();
+        }
+
+    }
+
+}
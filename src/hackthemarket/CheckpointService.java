@@ -0,0 +1,249 @@
+package hackthemarket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes checkpoints of a population on a background thread. The caller
+ * offers the population after each generation; when a checkpoint is due,
+ * a snapshot is encoded in memory at once and written out later, so the
+ * caller only pays for the encoding. If snapshots arrive faster than they
+ * can be written, only the latest waiting one is kept.
+ * <p>
+ * A checkpoint is written to a temporary file, forced to disk and then
+ * renamed over the current one, so the file always holds a complete
+ * checkpoint. The previous checkpoints are kept as {@code file.1},
+ * {@code file.2} and so on, up to the configured number.
+ */
+public class CheckpointService {
+
+    private final Path file;
+
+    private final int generations;
+
+    private final long period;
+
+    private final int keep;
+
+    private final boolean compress;
+
+    private final ExecutorService executor;
+
+    private final AtomicReference<ByteBuffer> pending;
+
+    private long lastOffer;
+
+    private int lastGeneration;
+
+    private long writes;
+
+    private long failures;
+
+    private long totalNanos;
+
+    private long lastNanos;
+
+    private long lastSize;
+
+    private IOException lastError;
+
+    /**
+     * @param file the checkpoint file
+     * @param generations the number of generations between checkpoints, or
+     * zero to only use the period
+     * @param period the least time between checkpoints in milliseconds, or
+     * zero to only use the generations
+     * @param keep the number of checkpoints kept, including the current one
+     * @param compress whether to compress the checkpoints
+     */
+    public CheckpointService(Path file, int generations, long period,
+            int keep, boolean compress) {
+        this.file = file;
+        this.generations = generations;
+        this.period = period;
+        this.keep = Math.max(1, keep);
+        this.compress = compress;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pending = new AtomicReference<>();
+        lastOffer = System.nanoTime();
+        lastGeneration = -1;
+    }
+
+    /**
+     * Checkpoints the population if one is due. Call it right after
+     * {@link Population#evolve()}, before the new population is evaluated.
+     * The generations are counted from the first population offered, so a
+     * run resumed from a checkpoint does not write one at once.
+     *
+     * @return whether a checkpoint was scheduled
+     */
+    public boolean offer(Population p) throws IOException {
+        if (lastGeneration < 0) {
+            lastGeneration = p.generation() - 1;
+        }
+        boolean due = generations > 0
+                && p.generation() - lastGeneration >= generations
+                || period > 0
+                && System.nanoTime() - lastOffer >= period * 1000000;
+        if (!due) {
+            return false;
+        }
+        save(p);
+        return true;
+    }
+
+    /**
+     * Checkpoints the population regardless of the schedule.
+     */
+    public void save(Population p) throws IOException {
+        lastGeneration = p.generation();
+        lastOffer = System.nanoTime();
+        if (pending.getAndSet(Checkpoint.snapshot(p)) == null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer snapshot = pending.getAndSet(null);
+                    if (snapshot != null) {
+                        write(snapshot);
+                    }
+                }
+            });
+        }
+    }
+
+    private void write(ByteBuffer snapshot) {
+        long start = System.nanoTime();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                Checkpoint.write(snapshot, channel, compress);
+                channel.force(true);
+            }
+            long size = Files.size(temporary);
+            rotate();
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, file,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            long nanos = System.nanoTime() - start;
+            synchronized (this) {
+                writes++;
+                totalNanos += nanos;
+                lastNanos = nanos;
+                lastSize = size;
+            }
+        } catch (IOException ex) {
+            synchronized (this) {
+                failures++;
+                lastError = ex;
+            }
+        }
+    }
+
+    /**
+     * Shifts the kept checkpoints along by one. The current checkpoint is
+     * linked rather than moved, so it stays in place until the new one
+     * replaces it.
+     */
+    private void rotate() throws IOException {
+        if (keep < 2 || !Files.exists(file)) {
+            return;
+        }
+        Files.deleteIfExists(kept(keep - 1));
+        for (int k = keep - 2; k >= 1; k--) {
+            if (Files.exists(kept(k))) {
+                Files.move(kept(k), kept(k + 1));
+            }
+        }
+        try {
+            Files.createLink(kept(1), file);
+        } catch (UnsupportedOperationException | FileSystemException ex) {
+            Files.copy(file, kept(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path kept(int k) {
+        return file.resolveSibling(file.getFileName() + "." + k);
+    }
+
+    /**
+     * @return the number of checkpoints written
+     */
+    public synchronized long writes() {
+        return writes;
+    }
+
+    /**
+     * @return the number of checkpoints that could not be written
+     */
+    public synchronized long failures() {
+        return failures;
+    }
+
+    /**
+     * @return the error of the last failed write, or {@code null}
+     */
+    public synchronized IOException lastError() {
+        return lastError;
+    }
+
+    /**
+     * @return the time taken by the last write in milliseconds
+     */
+    public synchronized double lastLatency() {
+        return lastNanos / 1e6;
+    }
+
+    /**
+     * @return the mean time taken by a write in milliseconds
+     */
+    public synchronized double meanLatency() {
+        return writes == 0 ? 0.0 : totalNanos / 1e6 / writes;
+    }
+
+    /**
+     * @return the size of the last checkpoint written in bytes
+     */
+    public synchronized long lastSize() {
+        return lastSize;
+    }
+
+    /**
+     * Writes any waiting checkpoint and stops the background thread.
+     */
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("writes=%d failures=%d latency=%.1fms size=%d",
+                writes, failures, lastLatency(), lastSize);
+    }
+
+}
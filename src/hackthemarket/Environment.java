@@ -0,0 +1,20 @@
+package hackthemarket;
+
+import java.util.SplittableRandom;
+
+/**
+ * A task that scores genomes. Environments are evaluated headless and may
+ * be called from several threads at once, so any state they keep between
+ * calls must be read-only.
+ */
+public interface Environment {
+
+    /**
+     * @param genome the genome being evaluated
+     * @param brain a network compiled from the genome for this call
+     * @param rng the random stream of this evaluation
+     * @return the fitness of the genome
+     */
+    double evaluate(Genome genome, NeuralNetwork brain, SplittableRandom rng);
+
+}
@@ -0,0 +1,337 @@
+package hackthemarket;
+
+import java.awt.Dimension;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.atan;
+import java.util.SplittableRandom;
+
+/**
+ * A seeker steered by a neural network chasing a target in the centre of
+ * the arena. An episode advances with explicit time steps and does no
+ * rendering, so it can be run headless or drawn by the {@link Simulator}.
+ */
+public class Episode {
+
+    public static final Dimension ARENA = new Dimension(1600, 800);
+
+    public static final int TIME_LIMIT = 20000;
+
+    static final Dimension SEEKER = new Dimension(30, 30);
+
+    /**
+     * The fastest a seeker can move, in pixels per millisecond.
+     */
+    public static final double MAX_SPEED = 0.2;
+
+    /**
+     * The distance a seeker must move from where it last moved to count as
+     * moving again.
+     */
+    static final double MOTION_TOLERANCE = 1.0;
+
+    /**
+     * The distance a seeker must close on the target beyond its closest
+     * approach to count as progress.
+     */
+    static final double PROGRESS_TOLERANCE = 10.0;
+
+    public static Point2D randSpawn(SplittableRandom rng) {
+        double r = rng.nextDouble();
+        double x;
+        double y;
+        if (r < 0.50) {
+            x = new Bound(50, 1550).rand(rng);
+            if (r < 0.25) {
+                y = 50;
+            } else {
+                y = 850;
+            }
+        } else {
+            y = new Bound(50, 850).rand(rng);
+            if (r < 0.75) {
+                x = 50;
+            } else {
+                x = 1550;
+            }
+        }
+        return new Point2D.Double(x, y);
+    }
+
+    private final NeuralNetwork brain;
+
+    private final double[] X;
+    private final double[] Y;
+
+    private final double targetX, targetY;
+
+    private double x, y;
+
+    private double fov;
+    private double angle;
+
+    private int t;
+
+    private int dt;
+
+    private double fitness;
+
+    private double anchorX, anchorY;
+
+    private int movedAt;
+
+    private double closest;
+
+    private int closedAt;
+
+    public Episode(NeuralNetwork brain, SplittableRandom rng) {
+        this(brain, randSpawn(rng), new Bound(0, 2 * PI).rand(rng));
+    }
+
+    public Episode(NeuralNetwork brain, Point2D spawn, double angle) {
+        this.brain = brain;
+        X = new double[brain.numInputs()];
+        Y = new double[brain.numOutputs()];
+        targetX = ARENA.width / 2;
+        targetY = ARENA.height / 2;
+        x = spawn.getX();
+        y = spawn.getY();
+        this.angle = angle;
+        fov = PI / 8;
+        t = 0;
+        dt = 0;
+        fitness = Double.NaN;
+        anchorX = x;
+        anchorY = y;
+        movedAt = 0;
+        closest = distance();
+        closedAt = 0;
+    }
+
+    /**
+     * Advances the seeker and scores it if the episode has ended.
+     *
+     * @param dt the time step in milliseconds
+     * @return whether the episode has ended
+     */
+    public boolean step(int dt) {
+        if (isFinished()) {
+            return true;
+        }
+        t += dt;
+        this.dt = dt;
+        update(dt);
+        track();
+        return score();
+    }
+
+    private void track() {
+        if (Math.hypot(x - anchorX, y - anchorY) > MOTION_TOLERANCE) {
+            anchorX = x;
+            anchorY = y;
+            movedAt = t;
+        }
+        double d = distance();
+        if (d < closest - PROGRESS_TOLERANCE) {
+            closest = d;
+            closedAt = t;
+        }
+    }
+
+    /**
+     * Ends the episode early, scoring the seeker as if it stayed where it
+     * is until the time limit.
+     */
+    public void cut() {
+        if (!isFinished()) {
+            fitness = 100 - distance() / 9.18;
+        }
+    }
+
+    /**
+     * @return the highest fitness the seeker could still reach, moving
+     * straight at the target at full speed
+     */
+    public double ceiling() {
+        double dx = Math.max(0, abs(x - targetX) - SEEKER.width / 2);
+        double dy = Math.max(0, abs(y - targetY) - SEEKER.height / 2);
+        int reach = t + (int) (Math.hypot(dx, dy) / MAX_SPEED);
+        if (reach <= TIME_LIMIT + dt) {
+            return 200 - reach / 1000 * 5;
+        }
+        double travel = MAX_SPEED * (TIME_LIMIT + dt - t);
+        return 100 - Math.max(0, distance() - travel) / 9.18;
+    }
+
+    /**
+     * Scores the seeker if it has reached the target or run out of time.
+     *
+     * @return whether the episode has ended
+     */
+    public boolean score() {
+        if (getHitbox().contains(targetX, targetY)) {
+            double T = t / 1000 * 5;
+            fitness = 200 - T;
+        } else if (t > TIME_LIMIT) {
+            fitness = 100 - distance() / 9.18;
+        }
+        return isFinished();
+    }
+
+    /**
+     * @return whether the seeker has been scored
+     */
+    public boolean isFinished() {
+        return !Double.isNaN(fitness);
+    }
+
+    /**
+     * @return the fitness of the seeker, or NaN while the episode runs
+     */
+    public double fitness() {
+        return fitness;
+    }
+
+    /**
+     * @return the elapsed time in milliseconds
+     */
+    public int time() {
+        return t;
+    }
+
+    /**
+     * @return the time the seeker last moved, in milliseconds
+     */
+    public int movedAt() {
+        return movedAt;
+    }
+
+    /**
+     * @return the time the seeker last closed on the target, in
+     * milliseconds
+     */
+    public int closedAt() {
+        return closedAt;
+    }
+
+    public double x() {
+        return x;
+    }
+
+    public double y() {
+        return y;
+    }
+
+    public double angle() {
+        return angle;
+    }
+
+    public double fov() {
+        return fov;
+    }
+
+    /**
+     * @return the distance from the seeker to the target
+     */
+    public double distance() {
+        return Math.hypot(x - targetX, y - targetY);
+    }
+
+    public Rectangle2D.Double getHitbox() {
+        double tx = x - SEEKER.width / 2;
+        double ty = y - SEEKER.height / 2;
+        return new Rectangle2D.Double(tx, ty, SEEKER.width, SEEKER.height);
+    }
+
+    private void update(int dt) {
+        angle += 2 * PI;
+        angle %= 2 * PI;
+
+        if (x < 0) {
+            x = 0;
+        } else if (x > ARENA.width) {
+            x = ARENA.width;
+        }
+        if (y < 0) {
+            y = 0;
+        } else if (y > ARENA.height) {
+            y = ARENA.height;
+        }
+
+        final boolean detected = inFOV(targetX, targetY);
+
+        double scaleFOV = 16 * fov / PI - 1;
+        double scaleCos = Math.cos(angle);
+        double scaleSin = Math.sin(angle);
+        double scaleDet = detected ? 1 : -1;
+
+        X[0] = scaleFOV;
+        X[1] = scaleCos;
+        X[2] = scaleSin;
+        X[3] = scaleDet;
+        brain.push(X, Y);
+
+        move(dt, Y[0], 1);
+        turn(dt, Y[1], 1);
+        alter(dt, Y[2], 1);
+    }
+
+    private void move(int dt, double o, int D) {
+        double v = dt * 0.2 * o * D;
+        x += v * Math.cos(angle);
+        y += v * -Math.sin(angle);
+    }
+
+    private void turn(int dt, double o, int D) {
+        angle += dt * 0.001 * o * D;
+    }
+
+    private void alter(int dt, double o, int D) {
+        fov += dt * 0.001 * o * D;
+        if (fov < 0.001) {
+            fov = 0.001;
+        } else if (fov > PI / 4) {
+            fov = PI / 4;
+        }
+    }
+
+    private boolean inFOV(double tx, double ty) {
+        double dx = abs(tx - x);
+        double dy = abs(ty - y);
+        double d0;
+        double theta1 = angle - fov;
+        double theta2 = angle + fov;
+        if (tx < x) {
+            if (ty < y) {
+                d0 = PI - atan(dy / dx);
+            } else if (ty > y) {
+                d0 = PI + atan(dy / dx);
+            } else {
+                d0 = PI;
+            }
+        } else if (tx > x) {
+            if (ty < y) {
+                d0 = atan(dy / dx);
+            } else if (ty > y) {
+                d0 = 2 * PI - atan(dy / dx);
+            } else {
+                d0 = 0;
+            }
+        } else {
+            if (ty < y) {
+                d0 = PI / 2;
+            } else if (ty > y) {
+                d0 = 3 * PI / 2;
+            } else {
+                d0 = 0;
+            }
+        }
+        if (theta1 > theta2) {
+            theta1 -= 2 * PI;
+        }
+        return (theta1 <= d0 && d0 <= theta2);
+    }
+
+}
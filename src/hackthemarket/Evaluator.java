@@ -0,0 +1,97 @@
+package hackthemarket;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Evaluates the genomes of a population concurrently in an environment on
+ * a fixed pool of threads, with no rendering.
+ */
+public class Evaluator {
+
+    private final Environment environment;
+
+    private final ExecutorService executor;
+
+    private final TopologyCache topologies;
+
+    public Evaluator(Environment environment) {
+        this(environment, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Evaluator(Environment environment, int threads) {
+        this.environment = environment;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "evaluator-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        topologies = new TopologyCache();
+    }
+
+    /**
+     * @return the cache the evaluated networks are compiled through
+     */
+    public TopologyCache topologies() {
+        return topologies;
+    }
+
+    /**
+     * Evaluates every genome of a population and assigns its fitness.
+     *
+     * @return the fitnesses, in the order of {@link Population#getGenomeList()}
+     */
+    public double[] evaluate(Population p) {
+        return evaluate(p.getGenomeList(), p.random(Population.EVALUATION));
+    }
+
+    /**
+     * Evaluates the genomes and assigns their fitnesses.
+     *
+     * @param rng the stream each genome's stream is split from, in order
+     * @return the fitnesses, in the order of the genomes
+     */
+    public double[] evaluate(List<Genome> genomes, SplittableRandom rng) {
+        List<Callable<Double>> tasks = Util.newList();
+        for (final Genome g : genomes) {
+            final SplittableRandom stream = rng.split();
+            tasks.add(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    NeuralNetwork brain = topologies.compile(g);
+                    return environment.evaluate(g, brain, stream);
+                }
+            });
+        }
+        double[] fitnesses = new double[genomes.size()];
+        try {
+            List<Future<Double>> results = executor.invokeAll(tasks);
+            for (int i = 0; i < fitnesses.length; i++) {
+                fitnesses[i] = results.get(i).get();
+                genomes.get(i).setFitness(fitnesses[i]);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evaluation interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Evaluation failed", ex.getCause());
+        }
+        return fitnesses;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
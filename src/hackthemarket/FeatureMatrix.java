@@ -0,0 +1,268 @@
+package hackthemarket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The values of a list of indicators at every bar of a dataset, computed
+ * once and then shared read-only by every evaluation. The matrix is held
+ * row by row in one array, a row per bar and a column per indicator, so
+ * the row of a bar is handed to
+ * {@link NeuralNetwork#push(double[], int, double[], double[])} as it is.
+ * <p>
+ * The matrix of a CSV file is cached next to it in a file named after the
+ * CSV and a hash of the indicator names:
+ * <pre>
+ * header   magic, version, rows, columns, source size, source time,
+ *          length of the names, the names, padded to 8 bytes
+ * values   a double per indicator per bar, row by row
+ * </pre>
+ * All values are little-endian. The cache is used while the CSV has the
+ * size and modification time and the indicators have the names stored in
+ * its header.
+ */
+public final class FeatureMatrix {
+
+    private static final int MAGIC = 0x48544D46;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 36;
+
+    /**
+     * Computes the indicators over the bars of a CSV file, or loads them
+     * from the cache. A matrix that is computed is cached; a cache that
+     * cannot be written is skipped.
+     */
+    public static FeatureMatrix load(Path csv, List<Indicator> indicators)
+            throws IOException {
+        MarketData data = MarketData.load(csv);
+        String names = Indicator.names(indicators);
+        Path cache = cacheOf(csv, names);
+        long size = Files.size(csv);
+        long time = Files.getLastModifiedTime(csv).toMillis();
+        FeatureMatrix matrix = readCache(cache, data, indicators, names,
+                size, time);
+        if (matrix == null) {
+            matrix = compute(data, indicators);
+            try {
+                matrix.writeCache(cache, names, size, time);
+            } catch (IOException ex) {
+                Files.deleteIfExists(cache.resolveSibling(
+                        cache.getFileName() + ".tmp"));
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * @return the path of the cache of the indicators of a CSV file
+     */
+    public static Path cacheOf(Path csv, String names) {
+        return csv.resolveSibling(csv.getFileName() + "."
+                + String.format("%08x", names.hashCode()) + ".features");
+    }
+
+    /**
+     * Computes the indicators over the bars, an indicator at a time.
+     */
+    public static FeatureMatrix compute(MarketData data,
+            List<Indicator> indicators) {
+        int rows = data.size();
+        int columns = indicators.size();
+        double[] values = new double[rows * columns];
+        double[] open = data.opens();
+        double[] high = data.highs();
+        double[] low = data.lows();
+        double[] close = data.closes();
+        for (int j = 0; j < columns; j++) {
+            Indicator indicator = indicators.get(j).copy();
+            for (int i = 0, k = j; i < rows; i++, k += columns) {
+                values[k] = indicator.update(open[i], high[i], low[i],
+                        close[i]);
+            }
+        }
+        return new FeatureMatrix(data, indicators, values);
+    }
+
+    private static FeatureMatrix readCache(Path cache, MarketData data,
+            List<Indicator> indicators, String names, long size, long time)
+            throws IOException {
+        byte[] expected = names.getBytes(StandardCharsets.UTF_8);
+        int rows = data.size();
+        int columns = indicators.size();
+        try (FileChannel channel = FileChannel.open(cache,
+                StandardOpenOption.READ)) {
+            long length = valuesAt(expected.length)
+                    + 8L * rows * columns;
+            if (channel.size() != length) {
+                return null;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+                    || map.getInt(8) != rows || map.getInt(12) != columns
+                    || map.getLong(16) != size || map.getLong(24) != time
+                    || map.getInt(32) != expected.length) {
+                return null;
+            }
+            byte[] stored = new byte[expected.length];
+            map.position(HEADER_SIZE);
+            map.get(stored);
+            if (!Arrays.equals(stored, expected)) {
+                return null;
+            }
+            double[] values = new double[rows * columns];
+            map.position((int) valuesAt(expected.length));
+            map.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer()
+                    .get(values);
+            return new FeatureMatrix(data, indicators, values);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    private static long valuesAt(int names) {
+        return (HEADER_SIZE + names + 7) & ~7L;
+    }
+
+    private final MarketData data;
+
+    private final List<Indicator> indicators;
+
+    private final double[] values;
+
+    private final int columns;
+
+    private final int start;
+
+    private FeatureMatrix(MarketData data, List<Indicator> indicators,
+            double[] values) {
+        this.data = data;
+        this.indicators = Util.newList();
+        this.indicators.addAll(indicators);
+        this.values = values;
+        columns = indicators.size();
+        int first = 0;
+        for (int k = 0; columns > 0 && k < values.length; k++) {
+            if (Double.isNaN(values[k])) {
+                first = k / columns + 1;
+            }
+        }
+        start = Math.min(first, data.size());
+    }
+
+    private void writeCache(Path cache, String names, long size, long time)
+            throws IOException {
+        byte[] bytes = names.getBytes(StandardCharsets.UTF_8);
+        Path temporary = cache.resolveSibling(cache.getFileName() + ".tmp");
+        long length = valuesAt(bytes.length) + 8L * values.length;
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE,
+                    0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(8, rows());
+            map.putInt(12, columns);
+            map.putLong(16, size);
+            map.putLong(24, time);
+            map.putInt(32, bytes.length);
+            map.position(HEADER_SIZE);
+            map.put(bytes);
+            map.position((int) valuesAt(bytes.length));
+            ByteBuffer body = map.slice().order(ByteOrder.LITTLE_ENDIAN);
+            body.asDoubleBuffer().put(values);
+            map.force();
+        }
+        try {
+            Files.move(temporary, cache, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the bars the indicators were computed over
+     */
+    public MarketData data() {
+        return data;
+    }
+
+    /**
+     * @return the number of rows, one per bar
+     */
+    public int rows() {
+        return data.size();
+    }
+
+    /**
+     * @return the number of columns, one per indicator
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * @return the index of the first row from which every value is known
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * @return the indicator of a column
+     */
+    public Indicator indicator(int column) {
+        return indicators.get(column);
+    }
+
+    /**
+     * @return the indicators, one per column
+     */
+    public List<Indicator> indicators() {
+        return indicators;
+    }
+
+    public double get(int row, int column) {
+        return values[row * columns + column];
+    }
+
+    /**
+     * @return the index in {@link #values()} of the first value of a row
+     */
+    public int offset(int row) {
+        return row * columns;
+    }
+
+    /**
+     * The values are shared, not copied, and must not be changed.
+     */
+    double[] values() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FeatureMatrix[%d x %d from %d: %s]", rows(),
+                columns, start, Indicator.names(indicators));
+    }
+
+}
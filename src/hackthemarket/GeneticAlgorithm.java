@@ -1,11 +1,9 @@
 package hackthemarket;
 
 import java.io.Serializable;
-import static java.lang.Math.random;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
 
 public class GeneticAlgorithm implements Serializable {
 
@@ -30,17 +28,11 @@ public class GeneticAlgorithm implements Serializable {
     private static final double Z_WEIGHT = 0.4;
     private static final double DELTA_THRESHOLD = 4.0;
 
+    private static final int INNOVATION_HORIZON = 1000;
+
     private static final long serialVersionUID = 1134L;
 
     /* Helper Methods */
-    private static Map<Integer, Link> linkMap(List<Link> links) {
-        Map<Integer, Link> linkMap = Util.newMap();
-        for (Link link : links) {
-            linkMap.put(link.innov(), link);
-        }
-        return linkMap;
-    }
-
     private static Set<Node> nodeSet(List<Node> nodes) {
         Set<Node> nodeSet = Util.newSet();
         for (Node node : nodes) {
@@ -49,153 +41,136 @@ public class GeneticAlgorithm implements Serializable {
         return nodeSet;
     }
 
-    private static int topInnovation(Genome g) {
-        Collections.sort(g.links());
-        return g.links().get(0).innov();
-    }
-
-    private static boolean containsLink(Genome g, Link check) {
-        if (g.links().isEmpty()) {
-            return false;
-        }
-        for (Link link : g.links()) {
-            if (link.in() == check.in() && link.out() == check.out()) {
-                return true;
-            }
+    /**
+     * @return the index of the first link of {@code g} at or after
+     * {@code from} whose innovation number is at least {@code innov}
+     */
+    private static int seek(Genome g, int from, int innov) {
+        int n = g.numLinks();
+        while (from < n && g.innov(from) < innov) {
+            from++;
         }
-        return false;
+        return from;
     }
 
-    public static int randNode(Genome g, Allele exclude) {
+    public static int randNode(Genome g, Allele exclude, SplittableRandom rng) {
         Node node;
         if (exclude.equals(Allele.Input)) {
             Bound B = new Bound(0, g.excludeInput.size() - 1);
-            node = g.excludeInput.get(B.randInt());
+            node = g.excludeInput.get(B.randInt(rng));
         } else if (exclude.equals(Allele.Output)) {
             Bound B = new Bound(0, g.excludeOutput.size() - 1);
-            node = g.excludeOutput.get(B.randInt());
+            node = g.excludeOutput.get(B.randInt(rng));
         } else {
             Bound B = new Bound(0, g.nodes().size() - 1);
-            node = g.nodes().get(B.randInt());
+            node = g.nodes().get(B.randInt(rng));
         }
         return node.key();
     }
 
-    public static void enableLink(Link link, double chance) {
-        if (random() < chance) {
-            link.setEnabled(true);
+    public static void enableLink(Genome g, int i, double chance,
+            SplittableRandom rng) {
+        if (rng.nextDouble() < chance) {
+            g.setEnabled(i, true);
         }
     }
 
-    public static void disableLink(Link link, double chance) {
-        if (random() < chance) {
-            link.setEnabled(false);
+    public static void disableLink(Genome g, int i, double chance,
+            SplittableRandom rng) {
+        if (rng.nextDouble() < chance) {
+            g.setEnabled(i, false);
         }
     }
 
     /* Speciation Operations */
-    public static int countDisjoint(Genome g1, Genome g2) {
-
-        if (g1.links().isEmpty() || g2.links().isEmpty()) {
-            return 0;
-        }
-
-        List<Link> lessInnov;
-        List<Link> moreInnov;
-        if (topInnovation(g1) >= topInnovation(g2)) {
-            lessInnov = g2.links();
-            moreInnov = g1.links();
-        } else {
-            lessInnov = g1.links();
-            moreInnov = g2.links();
+    /**
+     * Computes the compatibility distance between two genomes in a single
+     * walk over their innovation-sorted links. Disjoint genes are the
+     * unmatched genes of the genome with the lower top innovation, and
+     * excess genes are the genes of the other genome above that
+     * innovation.
+     *
+     * @param limit a distance at which to stop counting
+     * @return the distance, or a value of at least {@code limit} if the
+     * distance reaches it
+     */
+    public static double distance(Genome g1, Genome g2, double limit) {
+
+        int size1 = g1.numLinks();
+        int size2 = g2.numLinks();
+        double maxSize = Math.max(size1, size2);
+        if (maxSize <= N_LENIENCY) {
+            maxSize = 1;
         }
-
-        Map<Integer, Link> linkMap = linkMap(moreInnov);
-        int disjoint = 0;
-        for (Link link : lessInnov) {
-            if (linkMap.get(link.innov()) == null) {
-                disjoint++;
-            }
+        if (size1 == 0 || size2 == 0) {
+            return Z_EXCESS * (size1 + size2) / maxSize;
         }
-        return disjoint;
-    }
 
-    public static int countExcess(Genome g1, Genome g2) {
-
-        boolean empty1 = g1.links().isEmpty();
-        boolean empty2 = g2.links().isEmpty();
-        if (empty1 && empty2) {
-            return 0;
-        } else if (empty1) {
-            return g2.links().size();
-        } else if (empty2) {
-            return g1.links().size();
-        }
-        int top1 = topInnovation(g1);
-        int top2 = topInnovation(g2);
-        int lessInnov;
-        List<Link> moreInnov;
-        if (top1 > top2) {
-            lessInnov = top2;
-            moreInnov = g1.links();
-        } else if (top1 < top2) {
-            lessInnov = top1;
-            moreInnov = g2.links();
+        Genome lessInnov;
+        Genome moreInnov;
+        if (g1.topInnovation() >= g2.topInnovation()) {
+            lessInnov = g2;
+            moreInnov = g1;
         } else {
-            return 0;
+            lessInnov = g1;
+            moreInnov = g2;
         }
+        int lessSize = lessInnov.numLinks();
+        int moreSize = moreInnov.numLinks();
+        int top = lessInnov.topInnovation();
+
         int excess = 0;
-        for (Link link : moreInnov) {
-            if (link.innov() > lessInnov) {
-                excess++;
-            } else {
-                break;
-            }
+        for (int j = moreSize - 1; j >= 0 && moreInnov.innov(j) > top; j--) {
+            excess++;
         }
-        return excess;
-    }
-
-    public static double wBar(Genome g1, Genome g2) {
-
-        if (g1.links().isEmpty() || g2.links().isEmpty()) {
-            return 0.0;
+        double dExcess = Z_EXCESS * excess / maxSize;
+        if (dExcess >= limit) {
+            return dExcess;
         }
 
-        List<Link> linkList = g1.links();
-        Map<Integer, Link> linkMap = linkMap(g2.links());
-
+        int disjoint = 0;
         double wBar = 0.0;
         int matching = 0;
-        for (Link link1 : linkList) {
-            Link link2 = linkMap.get(link1.innov());
-            if (link2 != null) {
-                wBar += Math.abs(link1.weight() - link2.weight());
+        int j = 0;
+        for (int i = 0; i < lessSize; i++) {
+            int innov = lessInnov.innov(i);
+            while (j < moreSize && moreInnov.innov(j) < innov) {
+                j++;
+            }
+            if (j < moreSize && moreInnov.innov(j) == innov) {
+                wBar += Math.abs(lessInnov.weight(i) - moreInnov.weight(j));
                 matching++;
+            } else {
+                disjoint++;
+                double delta = Z_DISJOINT * disjoint / maxSize + dExcess;
+                if (delta >= limit) {
+                    return delta;
+                }
             }
         }
-
-        if (matching == 0) {
-            return 0.0;
-        }
-        return wBar / matching;
+        double dDisjoint = Z_DISJOINT * disjoint / maxSize;
+        double dWeight = matching == 0 ? 0.0 : Z_WEIGHT * (wBar / matching);
+        return dDisjoint + dExcess + dWeight;
     }
 
     public static double dissimilarity(Genome g1, Genome g2) {
 
-        if (g1.links().isEmpty() && g2.links().isEmpty()) {
+        if (g1.numLinks() == 0 && g2.numLinks() == 0) {
             return 0.0;
-        } else if (g1.links().isEmpty() || g2.links().isEmpty()) {
+        } else if (g1.numLinks() == 0 || g2.numLinks() == 0) {
             return 1.0;
         }
 
-        Map<Integer, Link> linkMap = linkMap(g1.links());
-        int genes = g1.links().size();
+        int genes = g1.numLinks();
         int matching = 0;
-        for (Link link : g2.links()) {
-            if (linkMap.get(link.innov()) == null) {
-                genes++;
-            } else {
+        int j = 0;
+        for (int i = 0; i < g2.numLinks(); i++) {
+            int innov = g2.innov(i);
+            j = seek(g1, j, innov);
+            if (j < g1.numLinks() && g1.innov(j) == innov) {
                 matching++;
+            } else {
+                genes++;
             }
         }
         double dissimilarity = 1.0 - (double) matching / genes;
@@ -203,95 +178,151 @@ public class GeneticAlgorithm implements Serializable {
     }
 
     public static boolean sameSpecies(Genome g1, Genome g2) {
-
-        int maxSize = Math.max(g1.links().size(), g2.links().size());
-        if (maxSize <= N_LENIENCY) {
-            maxSize = 1;
-        }
-        double dDisjoint = Z_DISJOINT * countDisjoint(g1, g2) / maxSize;
-        double dExcess = Z_EXCESS * countExcess(g1, g2) / maxSize;
-        double dWeight = Z_WEIGHT * wBar(g1, g2);
-        double delta = dDisjoint + dExcess + dWeight;
-        return delta < DELTA_THRESHOLD;
+        return distance(g1, g2, DELTA_THRESHOLD) < DELTA_THRESHOLD;
     }
 
     /* Class Proper -- Genetic Operations */
-    private int innovation;
-
-    private Map<Integer, Map<Integer, Integer>> history;
+    private final InnovationRegistry history;
 
     private final Bound W;
 
+    private Selection selection;
+
     public GeneticAlgorithm(Bound W) {
+        this(W, new InnovationRegistry(INNOVATION_HORIZON),
+                Selection.Tournament);
+    }
+
+    GeneticAlgorithm(Bound W, InnovationRegistry history,
+            Selection selection) {
         this.W = W;
-        innovation = -1;
-        history = Util.newMap();
+        this.history = history;
+        this.selection = selection;
     }
 
-    private int innovate(Link link) {
+    /**
+     * @return the bound of the link weights
+     */
+    public Bound weights() {
+        return W;
+    }
 
-        Map<Integer, Integer> input = history.get(link.in());
-        if (input == null) {
+    /**
+     * @return the strategy that chooses parents
+     */
+    public Selection selection() {
+        return selection;
+    }
 
-            innovation++;
-            input = Util.newMap();
-            input.put(link.out(), innovation);
-            history.put(link.in(), input);
-            return innovation;
-        } else {
-            Integer output = input.get(link.out());
-            if (output == null) {
+    /**
+     * @param selection the strategy that chooses parents
+     */
+    public void setSelection(Selection selection) {
+        this.selection = selection;
+    }
 
-                innovation++;
-                input.put(link.out(), innovation);
-                return innovation;
-            } else {
+    /**
+     * @return the innovation numbers of the link structures
+     */
+    public InnovationRegistry history() {
+        return history;
+    }
 
-                return output;
+    /**
+     * Starts a new generation of the innovation history, forgetting link
+     * structures that have not been seen for a long time. The structures
+     * of the living genomes are kept, however old they are.
+     *
+     * @param living every genome of the population
+     */
+    public void advance(List<Genome> living) {
+        for (Genome g : living) {
+            for (int i = 0; i < g.numLinks(); i++) {
+                history.retain(g.in(i), g.out(i));
             }
         }
+        history.advance();
+    }
+
+    private int innovate(int in, int out) {
+        return history.innovate(in, out);
     }
 
     public void innovate(List<Link> links) {
         for (Link link : links) {
-            link.setInnov(innovate(link));
+            link.setInnov(innovate(link.in(), link.out()));
+        }
+    }
+
+    /**
+     * Numbers the structural genes of a genome that have no innovation
+     * number, in the order they were created. Identical structures get the
+     * same number.
+     */
+    public void innovate(Genome g) {
+        int pending = 0;
+        while (pending < g.numLinks()
+                && g.innov(pending) == Link.NO_INNOVATION) {
+            pending++;
+        }
+        if (pending == 0) {
+            return;
         }
+        for (int i = 0; i < pending; i++) {
+            g.setInnov(i, innovate(g.in(i), g.out(i)));
+        }
+        g.sortLinks();
+    }
+
+    /**
+     * Renumbers a genome from another innovation space in this one. Links
+     * are matched by the neurons they join, so a structure this algorithm
+     * has seen keeps its number here.
+     *
+     * @param g a genome numbered by another genetic algorithm
+     * @return a copy of the genome numbered by this one, with its fitness
+     */
+    public Genome adopt(Genome g) {
+        Genome adopted = g.copy();
+        for (int i = 0; i < adopted.numLinks(); i++) {
+            adopted.setInnov(i, innovate(adopted.in(i), adopted.out(i)));
+        }
+        adopted.sortLinks();
+        adopted.setFitness(g.getFitness());
+        return adopted;
     }
 
     public void clear() {
-        history = Util.newMap();
+        history.clear();
     }
 
     public void reset() {
-        innovation = -1;
+        history.reset();
     }
 
-    public void pointMutate(Genome g) {
-        if (g.links().isEmpty()) {
-            return;
-        }
-        for (Link link : g.links()) {
-            if (random() < WEIGHT_PERTURB_CHANCE) {
-                double weight = link.weight();
-                weight += WEIGHT_PERTURB_SIZE * (2 * random() - 1);
-                link.setWeight(weight);
+    public void pointMutate(Genome g, SplittableRandom rng) {
+        for (int i = 0; i < g.numLinks(); i++) {
+            if (rng.nextDouble() < WEIGHT_PERTURB_CHANCE) {
+                double weight = g.weight(i);
+                weight += WEIGHT_PERTURB_SIZE * (2 * rng.nextDouble() - 1);
+                g.setWeight(i, weight);
             }
-            if (random() < WEIGHT_RANDOMIZATION_CHANCE) {
-                link.setWeight(W.rand());
+            if (rng.nextDouble() < WEIGHT_RANDOMIZATION_CHANCE) {
+                g.setWeight(i, W.rand(rng));
             }
         }
     }
 
-    public void linkMutate(Genome g) {
-        Link link = new Link(randNode(g, Allele.Output),
-                randNode(g, Allele.Input), W.rand(), true);
-        if (!containsLink(g, link)) {
-            link.setInnov(innovate(link));
-            g.links().add(link);
+    public void linkMutate(Genome g, SplittableRandom rng) {
+        int in = randNode(g, Allele.Output, rng);
+        int out = randNode(g, Allele.Input, rng);
+        double weight = W.rand(rng);
+        if (!g.containsLink(in, out)) {
+            g.addLink(in, out, Link.NO_INNOVATION, weight, true);
         }
     }
 
-    public void biasMutate(Genome g) {
+    public void biasMutate(Genome g, SplittableRandom rng) {
         Node bias = null;
         for (Node node : g.nodes()) {
             if (node.allele().equals(Allele.Bias)) {
@@ -300,83 +331,82 @@ public class GeneticAlgorithm implements Serializable {
             }
         }
         if (bias != null) {
-            Link link = new Link(bias.key(), randNode(g, Allele.Bias), W.rand(), true);
-            if (!containsLink(g, link)) {
-                link.setInnov(innovate(link));
-                g.links().add(link);
+            int out = randNode(g, Allele.Bias, rng);
+            double weight = W.rand(rng);
+            if (!g.containsLink(bias.key(), out)) {
+                g.addLink(bias.key(), out, Link.NO_INNOVATION, weight, true);
             }
         }
     }
 
-    public void nodeMutate(Genome g) {
-        if (g.links().isEmpty()) {
+    public void nodeMutate(Genome g, SplittableRandom rng) {
+        if (g.numLinks() == 0) {
             return;
         }
-        Link link = g.links().get(Util.randInt(0, g.links().size() - 1));
-        if (!link.isEnabled()) {
+        int i = Util.randInt(0, g.numLinks() - 1, rng);
+        if (!g.isEnabled(i)) {
             return;
         }
-        link.setEnabled(false);
+        g.setEnabled(i, false);
+        int in = g.in(i);
+        int out = g.out(i);
+        double weight = g.weight(i);
         Node node = new Node(g.nodes().size(), Allele.Hidden);
-        Link in = new Link(link.in(), node.key(), 1.0, true);
-        Link out = new Link(node.key(), link.out(), link.weight(), true);
-        in.setInnov(innovate(in));
-        out.setInnov(innovate(out));
-        g.links().add(in);
-        g.links().add(out);
-        g.nodes().add(node);
+        g.addLink(in, node.key(), Link.NO_INNOVATION, 1.0, true);
+        g.addLink(node.key(), out, Link.NO_INNOVATION, weight, true);
+        g.addNode(node);
     }
 
-    public void toggleMutate(Genome g) {
-        for (Link link : g.links()) {
-            if (link.isEnabled()) {
-                disableLink(link, DISABLE_MUTATION_CHANCE);
+    public void toggleMutate(Genome g, SplittableRandom rng) {
+        for (int i = 0; i < g.numLinks(); i++) {
+            if (g.isEnabled(i)) {
+                disableLink(g, i, DISABLE_MUTATION_CHANCE, rng);
             } else {
-                enableLink(link, ENABLE_MUTATION_CHANCE);
+                enableLink(g, i, ENABLE_MUTATION_CHANCE, rng);
             }
         }
     }
 
-    public void mutate(Genome g) {
+    public void mutate(Genome g, SplittableRandom rng) {
         double p;
         p = WEIGHT_MUTATION_CHANCE;
         while (p > 0) {
-            if (random() < p) {
-                pointMutate(g);
+            if (rng.nextDouble() < p) {
+                pointMutate(g, rng);
             }
             p--;
         }
         p = TOGGLE_MUTATION_CHANCE;
         while (p > 0) {
-            if (random() < p) {
-                toggleMutate(g);
+            if (rng.nextDouble() < p) {
+                toggleMutate(g, rng);
             }
             p--;
         }
         p = LINK_MUTATION_CHANCE;
         while (p > 0) {
-            if (random() < p) {
-                linkMutate(g);
+            if (rng.nextDouble() < p) {
+                linkMutate(g, rng);
             }
             p--;
         }
         p = BIAS_MUTATION_CHANCE;
         while (p > 0) {
-            if (random() < p) {
-                biasMutate(g);
+            if (rng.nextDouble() < p) {
+                biasMutate(g, rng);
             }
             p--;
         }
         p = NODE_MUTATION_CHANCE;
         while (p > 0) {
-            if (random() < p) {
-                nodeMutate(g);
+            if (rng.nextDouble() < p) {
+                nodeMutate(g, rng);
             }
             p--;
         }
     }
 
-    public Genome crossover(Genome g1, Genome g2) {
+    public Genome crossover(Genome g1, Genome g2, SplittableRandom rng) {
         // Compile all of the nodes such that none repeat
         Set<Node> nodeSet = nodeSet(g1.nodes());
         for (Node node : g2.nodes()) {
@@ -388,41 +418,55 @@ public class GeneticAlgorithm implements Serializable {
         }
         // Crossover matching genes and inherit non-matching from fitter
         Genome fitter;
-        Map<Integer, Link> linkMap;
-        List<Link> links = Util.newList();
+        Genome other;
         if (g1.compareTo(g2) > 0) {
             fitter = g2;
-            linkMap = linkMap(g1.links());
+            other = g1;
         } else {
             fitter = g1;
-            linkMap = linkMap(g2.links());
-        }
-        for (Link link1 : fitter.links()) {
-            Link link2 = linkMap.get(link1.innov());
-            if (link2 != null) {
-                Link link = random() < 0.5 ? link1.copy() : link2.copy();
-                if (!link1.isEnabled() || !link2.isEnabled()) {
-                    link.setEnabled(random() > CROSSOVER_DISABLE_CHANCE);
+            other = g2;
+        }
+        Genome g = new Genome(nodes, fitter.numLinks());
+        int j = 0;
+        for (int i = 0; i < fitter.numLinks(); i++) {
+            int innov = fitter.innov(i);
+            j = seek(other, j, innov);
+            if (j < other.numLinks() && other.innov(j) == innov) {
+                Genome source = rng.nextDouble() < 0.5 ? fitter : other;
+                int k = source == fitter ? i : j;
+                boolean enabled = source.isEnabled(k);
+                if (!fitter.isEnabled(i) || !other.isEnabled(j)) {
+                    enabled = rng.nextDouble() > CROSSOVER_DISABLE_CHANCE;
                 }
-                links.add(link);
+                g.addLink(source.in(k), source.out(k), innov,
+                        source.weight(k), enabled);
             } else {
-                links.add(link1.copy());
+                g.addLink(fitter.in(i), fitter.out(i), innov,
+                        fitter.weight(i), fitter.isEnabled(i));
             }
         }
         // Return the genome
-        return new Genome(nodes, links);
+        return g;
     }
 
-    public Genome breed(Species s1, Species s2) {
-        Genome g1 = s1.select();
-        Genome g2 = s2.select();
+    /**
+     * Breeds a child whose new structural genes have no innovation number
+     * yet. Spawning only reads the state of this algorithm, so children
+     * may be spawned concurrently with one generator per thread and then
+     * given their innovation numbers in order by {@link #innovate(Genome)}.
+     *
+     * @param hybrid whether the parents are of different species, in which
+     * case they are always crossed over
+     */
+    public Genome spawn(Genome g1, Genome g2, boolean hybrid,
+            SplittableRandom rng) {
         Genome g;
-        if (!s1.equals(s2) || random() < CROSSOVER_RATE) {
-            g = crossover(g1, g2);
+        if (hybrid || rng.nextDouble() < CROSSOVER_RATE) {
+            g = crossover(g1, g2, rng);
         } else {
-            g = random() < 0.5 ? g1.copy() : g2.copy();
+            g = rng.nextDouble() < 0.5 ? g1.copy() : g2.copy();
         }
-        mutate(g);
+        mutate(g, rng);
         return g;
     }
 
@@ -1,78 +1,281 @@
 package hackthemarket;
 
 import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * A genome of nodes and links. The nodes are kept sorted by key. The link
+ * genes are kept sorted by innovation number in parallel primitive arrays,
+ * and are exposed to existing callers through a read-only view.
+ */
 public class Genome implements Comparable<Genome>, Serializable {
 
+    private static final int INITIAL_CAPACITY = 8;
+    private static final long serialVersionUID = 1251L;
+
     private final List<Node> nodes;
     final List<Node> excludeInput;
     final List<Node> excludeOutput;
 
-    private final List<Link> links;
+    private int size;
+
+    private int[] innovations;
+
+    private int[] inputs;
+
+    private int[] outputs;
+
+    private double[] weights;
+
+    private final BitSet enabled;
 
     private double fitness;
 
+    /**
+     * The species this genome belongs to, which is told of its fitness.
+     */
+    Species species;
+
     public Genome(Genome base) {
-        Genome genome = base.copy();
-        nodes = genome.nodes();
-        links = genome.links();
-        fitness = Double.NaN;
+        this(base.nodes, base.size);
+        copyLinks(base);
+    }
 
+    public Genome(List<Node> nodes, List<Link> links) {
+        this(nodes, links.size());
+        for (Link link : links) {
+            addLink(link.in(), link.out(), link.innov(),
+                    link.weight(), link.isEnabled());
+        }
+    }
+
+    /**
+     * Creates a genome with the given nodes and no links.
+     *
+     * @param nodes the nodes of the genome
+     * @param capacity the expected number of links
+     */
+    Genome(List<Node> nodes, int capacity) {
+        this.nodes = Util.newList();
         excludeInput = Util.newList();
         excludeOutput = Util.newList();
         for (Node node : nodes) {
-            if (node.allele().equals(Allele.Input)) {
-                excludeOutput.add(node);
-            } else if (node.allele().equals(Allele.Output)) {
-                excludeInput.add(node);
-            } else {
-                excludeInput.add(node);
-                excludeOutput.add(node);
-            }
+            addNode(node);
         }
+        capacity = Math.max(capacity, INITIAL_CAPACITY);
+        size = 0;
+        innovations = new int[capacity];
+        inputs = new int[capacity];
+        outputs = new int[capacity];
+        weights = new double[capacity];
+        enabled = new BitSet(capacity);
+        fitness = Double.NaN;
     }
 
-    public Genome(List<Node> nodes, List<Link> links) {
-        this.nodes = nodes;
-        this.links = links;
-        fitness = Double.NaN;
+    private void copyLinks(Genome base) {
+        size = base.size;
+        System.arraycopy(base.innovations, 0, innovations, 0, size);
+        System.arraycopy(base.inputs, 0, inputs, 0, size);
+        System.arraycopy(base.outputs, 0, outputs, 0, size);
+        System.arraycopy(base.weights, 0, weights, 0, size);
+        enabled.or(base.enabled);
+    }
 
-        excludeInput = Util.newList();
-        excludeOutput = Util.newList();
-        for (Node node : nodes) {
-            if (node.allele().equals(Allele.Input)) {
-                excludeOutput.add(node);
-            } else if (node.allele().equals(Allele.Output)) {
-                excludeInput.add(node);
-            } else {
-                excludeInput.add(node);
-                excludeOutput.add(node);
+    public Genome copy() {
+        return new Genome(this);
+    }
+
+    /**
+     * @return a read-only view of the nodes, sorted by key
+     */
+    public List<Node> nodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * @return a read-only view of the links, sorted by innovation number
+     */
+    public List<Link> links() {
+        return new AbstractList<Link>() {
+
+            @Override
+            public Link get(int i) {
+                return link(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
             }
+        };
+    }
+
+    /**
+     * @param node a node to insert in key order
+     */
+    public void addNode(Node node) {
+        int i = Collections.binarySearch(nodes, node);
+        nodes.add(i < 0 ? -i - 1 : i + 1, node);
+        if (node.allele().equals(Allele.Input)) {
+            excludeOutput.add(node);
+        } else if (node.allele().equals(Allele.Output)) {
+            excludeInput.add(node);
+        } else {
+            excludeInput.add(node);
+            excludeOutput.add(node);
         }
     }
 
-    public Genome copy() {
-        List<Node> newNodes = Util.newList();
-        for (Node node : nodes) {
-            newNodes.add(node.copy());
+    /**
+     * Inserts a link after any links with the same innovation number.
+     *
+     * @return the index of the new link
+     */
+    public int addLink(int in, int out, int innovation,
+            double weight, boolean isEnabled) {
+        if (size == innovations.length) {
+            int capacity = 2 * size;
+            innovations = Arrays.copyOf(innovations, capacity);
+            inputs = Arrays.copyOf(inputs, capacity);
+            outputs = Arrays.copyOf(outputs, capacity);
+            weights = Arrays.copyOf(weights, capacity);
         }
-        List<Link> newLinks = Util.newList();
-        for (Link link : links) {
-            newLinks.add(link.copy());
+        int i = size;
+        while (i > 0 && innovations[i - 1] > innovation) {
+            i--;
         }
-        return new Genome(newNodes, newLinks);
+        int moved = size - i;
+        System.arraycopy(innovations, i, innovations, i + 1, moved);
+        System.arraycopy(inputs, i, inputs, i + 1, moved);
+        System.arraycopy(outputs, i, outputs, i + 1, moved);
+        System.arraycopy(weights, i, weights, i + 1, moved);
+        for (int j = size; j > i; j--) {
+            enabled.set(j, enabled.get(j - 1));
+        }
+        innovations[i] = innovation;
+        inputs[i] = in;
+        outputs[i] = out;
+        weights[i] = weight;
+        enabled.set(i, isEnabled);
+        size++;
+        return i;
     }
 
-    public List<Node> nodes() {
-        Collections.sort(nodes);
-        return nodes;
+    /**
+     * @return the number of links
+     */
+    public int numLinks() {
+        return size;
     }
 
-    public List<Link> links() {
-        Collections.sort(links);
-        return links;
+    /**
+     * @param i a link index
+     * @return a copy of the link
+     */
+    public Link link(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Link " + i + " of " + size);
+        }
+        return new Link(inputs[i], outputs[i], innovations[i],
+                weights[i], enabled.get(i));
+    }
+
+    /**
+     * @return the input neuron key of a link
+     */
+    public int in(int i) {
+        return inputs[i];
+    }
+
+    /**
+     * @return the output neuron key of a link
+     */
+    public int out(int i) {
+        return outputs[i];
+    }
+
+    /**
+     * @return the innovation number of a link
+     */
+    public int innov(int i) {
+        return innovations[i];
+    }
+
+    /**
+     * @return the weight of a link
+     */
+    public double weight(int i) {
+        return weights[i];
+    }
+
+    /**
+     * @return whether a link is enabled
+     */
+    public boolean isEnabled(int i) {
+        return enabled.get(i);
+    }
+
+    void setInnov(int i, int innovation) {
+        innovations[i] = innovation;
+    }
+
+    /**
+     * Restores the innovation order of the links after renumbering,
+     * keeping links with equal numbers in their current order.
+     */
+    void sortLinks() {
+        for (int i = 1; i < size; i++) {
+            int innovation = innovations[i];
+            int in = inputs[i];
+            int out = outputs[i];
+            double weight = weights[i];
+            boolean isEnabled = enabled.get(i);
+            int j = i;
+            while (j > 0 && innovations[j - 1] > innovation) {
+                innovations[j] = innovations[j - 1];
+                inputs[j] = inputs[j - 1];
+                outputs[j] = outputs[j - 1];
+                weights[j] = weights[j - 1];
+                enabled.set(j, enabled.get(j - 1));
+                j--;
+            }
+            innovations[j] = innovation;
+            inputs[j] = in;
+            outputs[j] = out;
+            weights[j] = weight;
+            enabled.set(j, isEnabled);
+        }
+    }
+
+    public void setWeight(int i, double weight) {
+        weights[i] = weight;
+    }
+
+    public void setEnabled(int i, boolean isEnabled) {
+        enabled.set(i, isEnabled);
+    }
+
+    /**
+     * @return the highest innovation number, or -1 without links
+     */
+    public int topInnovation() {
+        return size == 0 ? -1 : innovations[size - 1];
+    }
+
+    /**
+     * @return whether the genome has a link between two neurons
+     */
+    public boolean containsLink(int in, int out) {
+        for (int i = 0; i < size; i++) {
+            if (inputs[i] == in && outputs[i] == out) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public double getFitness() {
@@ -80,7 +283,11 @@ public class Genome implements Comparable<Genome>, Serializable {
     }
 
     public void setFitness(double fitness) {
+        double previous = this.fitness;
         this.fitness = fitness;
+        if (species != null) {
+            species.record(this, previous, fitness);
+        }
     }
 
     @Override
@@ -90,8 +297,8 @@ public class Genome implements Comparable<Genome>, Serializable {
         for (final Node node : nodes) {
             sb.append(node.toString());
         }
-        for (final Link link : links) {
-            sb.append(link.toString());
+        for (int i = 0; i < size; i++) {
+            sb.append(link(i).toString());
         }
         return sb.toString();
     }
@@ -0,0 +1,291 @@
+package hackthemarket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only archive of the champion of every generation. The genomes
+ * are appended to a data file in their checkpoint layout, and a
+ * memory-mapped index file holds a fixed-layout record per champion:
+ * <pre>
+ * generation  int
+ * length      int     the length of the genome in the data file
+ * offset      long    the position of the genome in the data file
+ * fitness     double
+ * best        double  the highest fitness of this or any earlier record
+ * </pre>
+ * Generations only increase along the archive, and so does the running
+ * best, so a champion is found by generation or by the fitness first
+ * reached with a binary search over the mapped records. Only the index is
+ * mapped and a genome is read only when asked for, so the archive can hold
+ * millions of champions without holding them on the heap.
+ * <p>
+ * A generation that is not after the last one is refused. A run resumed
+ * from an older checkpoint first drops the records it supersedes with
+ * {@link #rewind(int)}.
+ */
+public class HallOfFame implements Closeable {
+
+    private static final int MAGIC = 0x48544D48;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int RECORD_SIZE = 32;
+
+    private static final int INITIAL_RECORDS = 1024;
+
+    private static final int GENERATION = 0;
+    private static final int LENGTH = 4;
+    private static final int OFFSET = 8;
+    private static final int FITNESS = 16;
+    private static final int BEST = 24;
+
+    private final FileChannel index;
+
+    private final FileChannel data;
+
+    private MappedByteBuffer records;
+
+    private int count;
+
+    /**
+     * Opens an archive, creating it if it does not exist.
+     *
+     * @param base the path of the archive, to which {@code .idx} and
+     * {@code .dat} are appended
+     */
+    public HallOfFame(Path base) throws IOException {
+        index = FileChannel.open(
+                base.resolveSibling(base.getFileName() + ".idx"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        data = FileChannel.open(
+                base.resolveSibling(base.getFileName() + ".dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (index.size() == 0) {
+            map(INITIAL_RECORDS);
+            records.putInt(0, MAGIC);
+            records.putInt(4, VERSION);
+            records.putInt(8, 0);
+            count = 0;
+        } else {
+            long capacity = (index.size() - HEADER_SIZE) / RECORD_SIZE;
+            map((int) Math.max(capacity, INITIAL_RECORDS));
+            if (records.getInt(0) != MAGIC) {
+                throw new IOException("Not a hall of fame index");
+            }
+            if (records.getInt(4) != VERSION) {
+                throw new IOException("Unsupported hall of fame version "
+                        + records.getInt(4));
+            }
+            count = records.getInt(8);
+        }
+    }
+
+    private void map(int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Hall of fame index is full");
+        }
+        records = index.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private int position(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Record " + i + " of " + count);
+        }
+        return HEADER_SIZE + i * RECORD_SIZE;
+    }
+
+    /**
+     * Archives the champion of a generation.
+     *
+     * @param generation the generation, after the last archived one
+     * @param champion the evaluated champion of that generation
+     */
+    public synchronized void append(int generation, Genome champion)
+            throws IOException {
+        if (count > 0 && generation <= generation(count - 1)) {
+            throw new IllegalArgumentException("Generation " + generation
+                    + " is not after the last archived generation "
+                    + generation(count - 1));
+        }
+        long offset = end(count);
+        double best = count == 0 ? champion.getFitness()
+                : Math.max(best(count - 1), champion.getFitness());
+
+        ByteBuffer bytes = ByteBuffer.wrap(Checkpoint.encode(champion));
+        int length = bytes.remaining();
+        long at = offset;
+        while (bytes.hasRemaining()) {
+            at += data.write(bytes, at);
+        }
+
+        if (HEADER_SIZE + (long) (count + 1) * RECORD_SIZE > records.capacity()) {
+            map(2 * ((records.capacity() - HEADER_SIZE) / RECORD_SIZE));
+        }
+        int p = HEADER_SIZE + count * RECORD_SIZE;
+        records.putInt(p + GENERATION, generation);
+        records.putInt(p + LENGTH, length);
+        records.putLong(p + OFFSET, offset);
+        records.putDouble(p + FITNESS, champion.getFitness());
+        records.putDouble(p + BEST, best);
+        // The record is complete before the count that makes it visible
+        count++;
+        records.putInt(8, count);
+    }
+
+    /**
+     * Drops the champions of a generation and of every later one, so that
+     * archiving goes on from that generation. Call it when a run resumes
+     * from a checkpoint older than the archive.
+     *
+     * @param generation the first generation to drop
+     */
+    public synchronized void rewind(int generation) throws IOException {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (generation(mid) < generation) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == count) {
+            return;
+        }
+        // The count is cut before the data the dropped records point to
+        count = lo;
+        records.putInt(8, count);
+        data.truncate(end(count));
+    }
+
+    /**
+     * @return the position in the data file after the first n champions
+     */
+    private long end(int n) {
+        return n == 0 ? 0 : records.getLong(position(n - 1) + OFFSET)
+                + records.getInt(position(n - 1) + LENGTH);
+    }
+
+    /**
+     * @return the number of archived champions
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the generation of the i-th champion
+     */
+    public synchronized int generation(int i) {
+        return records.getInt(position(i) + GENERATION);
+    }
+
+    /**
+     * @return the fitness of the i-th champion
+     */
+    public synchronized double fitness(int i) {
+        return records.getDouble(position(i) + FITNESS);
+    }
+
+    /**
+     * @return the highest fitness of the first i + 1 champions
+     */
+    public synchronized double best(int i) {
+        return records.getDouble(position(i) + BEST);
+    }
+
+    /**
+     * @return the i-th champion, read from the data file
+     */
+    public synchronized Genome genome(int i) throws IOException {
+        int p = position(i);
+        ByteBuffer bytes = ByteBuffer.allocate(records.getInt(p + LENGTH));
+        long at = records.getLong(p + OFFSET);
+        while (bytes.hasRemaining()) {
+            int n = data.read(bytes, at);
+            if (n < 0) {
+                throw new IOException("Truncated hall of fame data");
+            }
+            at += n;
+        }
+        bytes.flip();
+        Genome g = Checkpoint.decode(bytes);
+        g.setFitness(fitness(i));
+        return g;
+    }
+
+    /**
+     * @return the index of the champion of a generation, or -1 if it was
+     * not archived
+     */
+    public synchronized int find(int generation) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int g = generation(mid);
+            if (g < generation) {
+                lo = mid + 1;
+            } else if (g > generation) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first champion with at least a fitness, or
+     * -1 if none has reached it
+     */
+    public synchronized int first(double fitness) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (best(mid) >= fitness) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo < count ? lo : -1;
+    }
+
+    /**
+     * @return the index of the fittest champion, the earliest if tied, or
+     * -1 if the archive is empty
+     */
+    public synchronized int fittest() {
+        return count == 0 ? -1 : first(best(count - 1));
+    }
+
+    /**
+     * Forces the archive to disk.
+     */
+    public synchronized void flush() throws IOException {
+        records.force();
+        data.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        index.close();
+        data.close();
+    }
+
+}
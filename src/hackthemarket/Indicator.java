@@ -0,0 +1,485 @@
+package hackthemarket;
+
+import java.util.List;
+
+/**
+ * A technical indicator, updated one bar at a time in constant time. An
+ * indicator keeps the state of its window between bars, so each series of
+ * bars needs an indicator of its own, which {@link #copy()} gives.
+ * <p>
+ * Every value is free of the price level so that it can be shown to a
+ * network as it is: moves are log returns in percent, averages are the
+ * log distance of the close from the average in percent, and the RSI is
+ * scaled to {@code [-1, 1]}. An indicator gives NaN until its window is
+ * full.
+ * <p>
+ * An indicator is named by its kind and period, as in {@code sma(20)}, and
+ * {@link #parse(String)} creates an indicator from its name.
+ */
+public abstract class Indicator {
+
+    private static final double PERCENT = 100.0;
+
+    /**
+     * @param lag the number of bars back
+     * @return the log return of the close a number of bars back
+     */
+    public static Indicator returns(int lag) {
+        return new Returns(lag);
+    }
+
+    /**
+     * @return the distance of the close from its simple moving average
+     */
+    public static Indicator sma(int period) {
+        return new SimpleAverage(period);
+    }
+
+    /**
+     * @return the distance of the close from its exponential moving
+     * average, which is seeded by the first close
+     */
+    public static Indicator ema(int period) {
+        return new ExponentialAverage(period);
+    }
+
+    /**
+     * @return the sample standard deviation of the returns over a window
+     */
+    public static Indicator volatility(int period) {
+        return new Volatility(period);
+    }
+
+    /**
+     * @return Wilder's relative strength index
+     */
+    public static Indicator rsi(int period) {
+        return new RelativeStrength(period);
+    }
+
+    /**
+     * @return the true range of a bar relative to the previous close
+     */
+    public static Indicator trueRange() {
+        return new TrueRange();
+    }
+
+    /**
+     * @return the indicators shown to the networks unless told otherwise:
+     * the last five returns, the averages, the volatility, the RSI and the
+     * true range
+     */
+    public static List<Indicator> defaults() {
+        List<Indicator> indicators = Util.newList();
+        for (int lag = 0; lag < 5; lag++) {
+            indicators.add(returns(lag));
+        }
+        indicators.add(sma(20));
+        indicators.add(ema(10));
+        indicators.add(volatility(20));
+        indicators.add(rsi(14));
+        indicators.add(trueRange());
+        return indicators;
+    }
+
+    /**
+     * @param name the name of an indicator, as in {@code ema(10)}
+     * @return a new indicator of that name
+     */
+    public static Indicator parse(String name) {
+        String s = name.trim();
+        int open = s.indexOf('(');
+        if (open < 0 || !s.endsWith(")")) {
+            throw new IllegalArgumentException("Unknown indicator " + name);
+        }
+        String kind = s.substring(0, open).trim();
+        String argument = s.substring(open + 1, s.length() - 1).trim();
+        if (kind.equals("tr") && argument.isEmpty()) {
+            return trueRange();
+        }
+        int period;
+        try {
+            period = Integer.parseInt(argument);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Unknown indicator " + name);
+        }
+        switch (kind) {
+            case "ret":
+                return returns(period);
+            case "sma":
+                return sma(period);
+            case "ema":
+                return ema(period);
+            case "vol":
+                return volatility(period);
+            case "rsi":
+                return rsi(period);
+            default:
+                throw new IllegalArgumentException("Unknown indicator " + name);
+        }
+    }
+
+    /**
+     * @param names indicator names separated by commas
+     * @return new indicators of those names
+     */
+    public static List<Indicator> parseAll(String names) {
+        List<Indicator> indicators = Util.newList();
+        int depth = 0;
+        int from = 0;
+        for (int i = 0; i <= names.length(); i++) {
+            char c = i < names.length() ? names.charAt(i) : ',';
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                indicators.add(parse(names.substring(from, i)));
+                from = i + 1;
+            }
+        }
+        return indicators;
+    }
+
+    /**
+     * @return the names of the indicators separated by commas
+     */
+    public static String names(List<Indicator> indicators) {
+        StringBuilder sb = new StringBuilder();
+        for (Indicator indicator : indicators) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(indicator.name);
+        }
+        return sb.toString();
+    }
+
+    private final String name;
+
+    private Indicator(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Moves the indicator on by a bar.
+     *
+     * @return the value of the indicator at the bar, or NaN if its window
+     * is not full yet
+     */
+    public abstract double update(double open, double high, double low,
+            double close);
+
+    /**
+     * Forgets every bar seen.
+     */
+    public abstract void reset();
+
+    /**
+     * @return a new indicator of the same kind and period, which has seen
+     * no bar
+     */
+    public Indicator copy() {
+        return parse(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static int positive(int period) {
+        if (period < 1) {
+            throw new IllegalArgumentException("Period " + period);
+        }
+        return period;
+    }
+
+    /**
+     * The last values of a series in a ring, with their running sum and sum
+     * of squares. The sums are recomputed from the ring each time it comes
+     * round, so rounding errors do not build up over a long series.
+     */
+    private static final class Window {
+
+        private final double[] ring;
+
+        private int next;
+
+        private int count;
+
+        private double sum;
+
+        private double squares;
+
+        private Window(int capacity) {
+            ring = new double[capacity];
+            reset();
+        }
+
+        private void reset() {
+            next = 0;
+            count = 0;
+            sum = 0.0;
+            squares = 0.0;
+        }
+
+        /**
+         * @return the value that dropped out of the window, or NaN
+         */
+        private double add(double value) {
+            double dropped = Double.NaN;
+            if (count == ring.length) {
+                dropped = ring[next];
+                sum -= dropped;
+                squares -= dropped * dropped;
+            } else {
+                count++;
+            }
+            ring[next] = value;
+            sum += value;
+            squares += value * value;
+            if (++next == ring.length) {
+                next = 0;
+                sum = 0.0;
+                squares = 0.0;
+                for (int i = 0; i < count; i++) {
+                    sum += ring[i];
+                    squares += ring[i] * ring[i];
+                }
+            }
+            return dropped;
+        }
+
+        private boolean full() {
+            return count == ring.length;
+        }
+
+        /**
+         * @return the oldest value in the window
+         */
+        private double oldest() {
+            return ring[count == ring.length ? next : 0];
+        }
+
+    }
+
+    private static final class Returns extends Indicator {
+
+        private final Window returns;
+
+        private double previous;
+
+        private Returns(int lag) {
+            super("ret(" + lag + ")");
+            if (lag < 0) {
+                throw new IllegalArgumentException("Lag " + lag);
+            }
+            returns = new Window(lag + 1);
+            reset();
+        }
+
+        @Override
+        public double update(double open, double high, double low,
+                double close) {
+            if (!Double.isNaN(previous)) {
+                returns.add(PERCENT * Math.log(close / previous));
+            }
+            previous = close;
+            return returns.full() ? returns.oldest() : Double.NaN;
+        }
+
+        @Override
+        public void reset() {
+            returns.reset();
+            previous = Double.NaN;
+        }
+
+    }
+
+    private static final class SimpleAverage extends Indicator {
+
+        private final Window closes;
+
+        private SimpleAverage(int period) {
+            super("sma(" + period + ")");
+            closes = new Window(positive(period));
+        }
+
+        @Override
+        public double update(double open, double high, double low,
+                double close) {
+            closes.add(close);
+            if (!closes.full()) {
+                return Double.NaN;
+            }
+            return PERCENT * Math.log(close * closes.count / closes.sum);
+        }
+
+        @Override
+        public void reset() {
+            closes.reset();
+        }
+
+    }
+
+    private static final class ExponentialAverage extends Indicator {
+
+        private final int period;
+
+        private final double alpha;
+
+        private double average;
+
+        private int count;
+
+        private ExponentialAverage(int period) {
+            super("ema(" + period + ")");
+            this.period = positive(period);
+            alpha = 2.0 / (period + 1);
+            reset();
+        }
+
+        @Override
+        public double update(double open, double high, double low,
+                double close) {
+            average = count == 0 ? close : average + alpha * (close - average);
+            if (++count < period) {
+                return Double.NaN;
+            }
+            count = period;
+            return PERCENT * Math.log(close / average);
+        }
+
+        @Override
+        public void reset() {
+            average = Double.NaN;
+            count = 0;
+        }
+
+    }
+
+    private static final class Volatility extends Indicator {
+
+        private final Window returns;
+
+        private double previous;
+
+        private Volatility(int period) {
+            super("vol(" + period + ")");
+            if (period < 2) {
+                throw new IllegalArgumentException("Period " + period);
+            }
+            returns = new Window(period);
+            reset();
+        }
+
+        @Override
+        public double update(double open, double high, double low,
+                double close) {
+            if (!Double.isNaN(previous)) {
+                returns.add(PERCENT * Math.log(close / previous));
+            }
+            previous = close;
+            if (!returns.full()) {
+                return Double.NaN;
+            }
+            int n = returns.count;
+            double variance = (returns.squares - returns.sum * returns.sum / n)
+                    / (n - 1);
+            return variance > 0.0 ? Math.sqrt(variance) : 0.0;
+        }
+
+        @Override
+        public void reset() {
+            returns.reset();
+            previous = Double.NaN;
+        }
+
+    }
+
+    private static final class RelativeStrength extends Indicator {
+
+        private final int period;
+
+        private double gain;
+
+        private double loss;
+
+        private double previous;
+
+        private int count;
+
+        private RelativeStrength(int period) {
+            super("rsi(" + period + ")");
+            this.period = positive(period);
+            reset();
+        }
+
+        @Override
+        public double update(double open, double high, double low,
+                double close) {
+            if (Double.isNaN(previous)) {
+                previous = close;
+                return Double.NaN;
+            }
+            double change = close - previous;
+            previous = close;
+            double up = change > 0 ? change : 0.0;
+            double down = change < 0 ? -change : 0.0;
+            if (count < period) {
+                // The first averages are simple, then they are smoothed
+                count++;
+                gain += (up - gain) / count;
+                loss += (down - loss) / count;
+                if (count < period) {
+                    return Double.NaN;
+                }
+            } else {
+                gain += (up - gain) / period;
+                loss += (down - loss) / period;
+            }
+            double total = gain + loss;
+            // RSI = 100 gain / (gain + loss), moved to [-1, 1]
+            return total > 0.0 ? (gain - loss) / total : 0.0;
+        }
+
+        @Override
+        public void reset() {
+            gain = 0.0;
+            loss = 0.0;
+            previous = Double.NaN;
+            count = 0;
+        }
+
+    }
+
+    private static final class TrueRange extends Indicator {
+
+        private double previous;
+
+        private TrueRange() {
+            super("tr()");
+            reset();
+        }
+
+        @Override
+        public double update(double open, double high, double low,
+                double close) {
+            double p = previous;
+            previous = close;
+            if (Double.isNaN(p)) {
+                return Double.NaN;
+            }
+            double range = Math.max(high, p) - Math.min(low, p);
+            return PERCENT * range / p;
+        }
+
+        @Override
+        public void reset() {
+            previous = Double.NaN;
+        }
+
+    }
+
+}
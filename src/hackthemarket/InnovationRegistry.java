@@ -0,0 +1,278 @@
+package hackthemarket;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The innovation numbers given to each link structure, in an open
+ * addressing table from the packed pair {@code (in << 32) | out} to the
+ * number. Every entry is stamped with the last generation that asked for
+ * it or had a genome carrying it, and entries neither asked for nor
+ * carried within a horizon of generations are evicted, so memory stays
+ * bounded however long a run goes. A structure that is still carried
+ * therefore keeps its number, and a gene that reappears by mutation lines
+ * up with the copies already in the population.
+ */
+public class InnovationRegistry implements Serializable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int FREE = -1;
+    private static final long serialVersionUID = 7311L;
+
+    /**
+     * @return the key of the link structure from {@code in} to {@code out}
+     */
+    public static long key(int in, int out) {
+        return ((long) in << 32) | (out & 0xFFFFFFFFL);
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int capacityFor(int entries) {
+        int capacity = INITIAL_CAPACITY;
+        while (entries * 4 > capacity * 3) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private final int horizon;
+
+    private transient long[] keys;
+
+    private transient int[] values;
+
+    private transient int[] stamps;
+
+    private transient int size;
+
+    private int generation;
+
+    private int innovation;
+
+    /**
+     * @param horizon the number of generations an unused entry is kept
+     */
+    public InnovationRegistry(int horizon) {
+        this.horizon = horizon;
+        generation = 0;
+        innovation = -1;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Restores a registry from its entries.
+     */
+    InnovationRegistry(int horizon, int generation, int innovation,
+            long[] keys, int[] values, int[] stamps) {
+        this.horizon = horizon;
+        this.generation = generation;
+        this.innovation = innovation;
+        allocate(capacityFor(keys.length));
+        for (int j = 0; j < keys.length; j++) {
+            put(keys[j], values[j], stamps[j]);
+        }
+    }
+
+    /**
+     * Copies out the entries, in no particular order.
+     *
+     * @param keys receives the key of each entry
+     * @param values receives the innovation number of each entry
+     * @param stamps receives the generation each entry was last used
+     */
+    void export(long[] keys, int[] values, int[] stamps) {
+        int j = 0;
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.values[i] != FREE) {
+                keys[j] = this.keys[i];
+                values[j] = this.values[i];
+                stamps[j] = this.stamps[i];
+                j++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of generations an unused entry is kept
+     */
+    public int horizon() {
+        return horizon;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        stamps = new int[capacity];
+        Arrays.fill(values, FREE);
+        size = 0;
+    }
+
+    /**
+     * @return the innovation number of the link structure, numbering it if
+     * it is new
+     */
+    public int innovate(int in, int out) {
+        long key = key(in, out);
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != FREE) {
+            if (keys[i] == key) {
+                stamps[i] = generation;
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        innovation++;
+        keys[i] = key;
+        values[i] = innovation;
+        stamps[i] = generation;
+        if (++size * 4 > keys.length * 3) {
+            rehash(keys.length * 2, Integer.MIN_VALUE);
+        }
+        return innovation;
+    }
+
+    /**
+     * @return the innovation number of the link structure, or -1 if it is
+     * not registered
+     */
+    public int get(int in, int out) {
+        long key = key(in, out);
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != FREE) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return FREE;
+    }
+
+    /**
+     * Stamps a link structure with the current generation, if it is
+     * registered, as {@link #innovate(int, int)} does without numbering it.
+     */
+    public void retain(int in, int out) {
+        long key = key(in, out);
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != FREE) {
+            if (keys[i] == key) {
+                stamps[i] = generation;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Starts a new generation and evicts the entries not asked for or
+     * retained within the horizon.
+     */
+    public void advance() {
+        generation++;
+        int oldest = generation - horizon;
+        int live = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != FREE && stamps[i] >= oldest) {
+                live++;
+            }
+        }
+        if (live < size) {
+            rehash(capacityFor(live), oldest);
+        }
+    }
+
+    private void rehash(int capacity, int oldest) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        int[] oldStamps = stamps;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != FREE && oldStamps[j] >= oldest) {
+                put(oldKeys[j], oldValues[j], oldStamps[j]);
+            }
+        }
+    }
+
+    private void put(long key, int value, int stamp) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != FREE) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        stamps[i] = stamp;
+        size++;
+    }
+
+    /**
+     * @return the number of registered link structures
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the last innovation number given, or -1
+     */
+    public int top() {
+        return innovation;
+    }
+
+    /**
+     * @return the current generation
+     */
+    public int generation() {
+        return generation;
+    }
+
+    /**
+     * Forgets every link structure, keeping the numbering.
+     */
+    public void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Restarts the numbering at zero, keeping the registered structures.
+     */
+    public void reset() {
+        innovation = -1;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != FREE) {
+                out.writeLong(keys[i]);
+                out.writeInt(values[i]);
+                out.writeInt(stamps[i]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        allocate(capacityFor(n));
+        for (int j = 0; j < n; j++) {
+            long key = in.readLong();
+            int value = in.readInt();
+            int stamp = in.readInt();
+            put(key, value, stamp);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package hackthemarket;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in nanoseconds with a fixed relative precision.
+ * Latencies below {@value #SUB_BUCKETS} nanoseconds are counted exactly,
+ * and each doubling above that is split into {@value #HALF} buckets, so a
+ * percentile is within about 1.6% of the true one. Every bucket exists up
+ * front, so recording a latency never allocates.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private static final int BUCKETS
+            = SUB_BUCKETS + (64 - SUB_BITS) * HALF;
+
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - (SUB_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF
+                + (int) (nanos >>> shift) - HALF;
+    }
+
+    /**
+     * @return the highest latency counted in a bucket
+     */
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+        long sub = (bucket - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private final long[] counts;
+
+    private long count;
+
+    private long total;
+
+    private long max;
+
+    public LatencyHistogram() {
+        counts = new long[BUCKETS];
+        reset();
+    }
+
+    /**
+     * Counts a latency.
+     */
+    public void record(long nanos) {
+        counts[bucket(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * @return the number of latencies counted
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the mean latency, or 0 if none is counted
+     */
+    public double mean() {
+        return count == 0 ? 0.0 : (double) total / count;
+    }
+
+    /**
+     * @return the highest latency counted
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @param q a fraction in {@code [0, 1]}
+     * @return the nearest-rank percentile of the latencies, rounded up to
+     * its bucket, or 0 if none is counted
+     */
+    public long percentile(double q) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "n=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                count, mean() / 1e3, percentile(0.5) / 1e3,
+                percentile(0.99) / 1e3, percentile(0.999) / 1e3, max / 1e3);
+    }
+
+}
@@ -4,7 +4,7 @@ import java.io.Serializable;
 
 public class Link implements Comparable<Link>, Serializable {
 
-    private static final int NO_INNOVATION = -1;
+    public static final int NO_INNOVATION = -1;
     private static final long serialVersionUID = 1432L;
 
     private final int input;
@@ -0,0 +1,377 @@
+package hackthemarket;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Trades new bars with a trained network as they arrive. The bars are read
+ * as CSV lines, either by tailing a file that another process appends to
+ * or from a connection accepted on a loopback port. For every bar the
+ * indicators are moved on by one bar, the network is pushed with them and
+ * the position it holds, and a signal line of the date of the bar and the
+ * new position is written to standard output.
+ * <p>
+ * Once the network and the buffers exist nothing in the loop allocates:
+ * lines are parsed in place, the indicators update in constant time, and
+ * the signal is formatted into a reused buffer. The time from reading a
+ * bar to writing its signal is kept in a {@link LatencyHistogram} and
+ * checked against a budget. Both are reported on standard error by a
+ * thread of their own every {@value #REPORT_SECONDS} seconds, so that the
+ * report does not allocate in the loop either, and at the end of the
+ * stream. A report read while bars are recorded may be off by those bars.
+ * <p>
+ * The lines already in a tailed file when it is opened are history: they
+ * warm up the indicators and the network without being timed or
+ * signalled. Until every indicator is known the position is flat.
+ * <p>
+ * Usage: {@code LiveInference file|tcp:port [budget in microseconds]}
+ * <p>
+ * The network is the fittest champion of the hall of fame named by the
+ * {@code hackthemarket.hall} property, {@code market-hall} by default, and
+ * the indicators are named by {@code hackthemarket.indicators} as for the
+ * {@link Trainer}.
+ */
+public class LiveInference {
+
+    public static final long DEFAULT_BUDGET = 1000;
+
+    private static final int REPORT_SECONDS = 10;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The pause between polls of a tailed file that has no new bytes.
+     */
+    private static final long POLL_NANOS = 100000;
+
+    private static final String HALL_PROPERTY = "hackthemarket.hall";
+
+    private static final String INDICATORS_PROPERTY
+            = "hackthemarket.indicators";
+
+    private static final String SOCKET_PREFIX = "tcp:";
+
+    public static void main(String[] args) throws IOException {
+        long budget = 1000 * (args.length > 1 ? Long.parseLong(args[1])
+                : DEFAULT_BUDGET);
+        String names = System.getProperty(INDICATORS_PROPERTY);
+        List<Indicator> indicators = names == null ? Indicator.defaults()
+                : Indicator.parseAll(names);
+        Genome champion;
+        try (HallOfFame hall = new HallOfFame(Paths.get(
+                System.getProperty(HALL_PROPERTY, "market-hall")))) {
+            if (hall.size() == 0) {
+                throw new IOException("The hall of fame is empty");
+            }
+            champion = hall.genome(hall.fittest());
+        }
+        FileOutputStream out = new FileOutputStream(FileDescriptor.out);
+        final LiveInference live = new LiveInference(
+                new NeuralNetwork(champion), indicators, out.getChannel(),
+                budget);
+        if (args[0].startsWith(SOCKET_PREFIX)) {
+            int port = Integer.parseInt(
+                    args[0].substring(SOCKET_PREFIX.length()));
+            live.listen(port);
+        } else {
+            // A tailed file never ends, so report when the run is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    live.report();
+                }
+            });
+            live.tail(Paths.get(args[0]));
+        }
+    }
+
+    @SuppressWarnings("UseOfSystemOutOrSystemErr")
+    private static void report(Object s) {
+        System.err.println(s);
+    }
+
+    private final NeuralNetwork brain;
+
+    private final Indicator[] indicators;
+
+    private final WritableByteChannel signals;
+
+    private final long budget;
+
+    private final BarParser bar;
+
+    private final double[] features;
+
+    private final double[] state;
+
+    private final double[] outputs;
+
+    private final byte[] input;
+
+    private final ByteBuffer inputBuffer;
+
+    private final byte[] output;
+
+    private final ByteBuffer outputBuffer;
+
+    private final LatencyHistogram latencies;
+
+    private double position;
+
+    private volatile long bars;
+
+    private volatile long overruns;
+
+    /**
+     * @param brain the network traded with, with an input per indicator
+     * and one for the position
+     * @param indicators the indicators the network was trained with
+     * @param signals the channel the signal lines are written to
+     * @param budget the latency budget of a bar in nanoseconds
+     */
+    public LiveInference(NeuralNetwork brain, List<Indicator> indicators,
+            WritableByteChannel signals, long budget) {
+        if (brain.numInputs() != indicators.size() + 1) {
+            throw new IllegalArgumentException("The network has "
+                    + brain.numInputs() + " inputs but "
+                    + (indicators.size() + 1) + " are given");
+        }
+        this.brain = brain;
+        this.indicators = new Indicator[indicators.size()];
+        for (int j = 0; j < this.indicators.length; j++) {
+            this.indicators[j] = indicators.get(j).copy();
+        }
+        this.signals = signals;
+        this.budget = budget;
+        bar = new BarParser();
+        features = new double[indicators.size()];
+        state = new double[1];
+        outputs = new double[brain.numOutputs()];
+        input = new byte[BUFFER_SIZE];
+        inputBuffer = ByteBuffer.wrap(input);
+        output = new byte[BUFFER_SIZE];
+        outputBuffer = ByteBuffer.wrap(output);
+        latencies = new LatencyHistogram();
+        position = 0.0;
+        bars = 0;
+        overruns = 0;
+    }
+
+    /**
+     * Follows a file as lines are appended to it, until interrupted. A file
+     * that shrinks is taken as replaced and read again from its start.
+     */
+    public void tail(Path file) throws IOException {
+        ScheduledExecutorService reporter = reporter();
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long history = channel.size();
+            while (channel.position() < history) {
+                read(channel, false);
+            }
+            while (!Thread.currentThread().isInterrupted()) {
+                if (channel.size() < channel.position()) {
+                    channel.position(0);
+                    inputBuffer.clear();
+                }
+                if (read(channel, true) <= 0) {
+                    LockSupport.parkNanos(POLL_NANOS);
+                }
+            }
+        } finally {
+            reporter.shutdownNow();
+            report();
+        }
+    }
+
+    /**
+     * Accepts one connection on a loopback port and reads bars from it
+     * until it is closed.
+     */
+    public void listen(int port) throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), port));
+            report("Listening on " + server.getLocalAddress());
+            try (SocketChannel socket = server.accept()) {
+                socket.socket().setTcpNoDelay(true);
+                read(socket);
+            }
+        }
+    }
+
+    /**
+     * Reads bars from a channel until it ends.
+     */
+    public void read(ReadableByteChannel channel) throws IOException {
+        ScheduledExecutorService reporter = reporter();
+        try {
+            while (read(channel, true) >= 0) {
+            }
+            // The last line may have no line break
+            int end = inputBuffer.position();
+            inputBuffer.clear();
+            if (bar.parse(input, 0, end)) {
+                trade(true);
+            }
+        } finally {
+            reporter.shutdownNow();
+            report();
+        }
+    }
+
+    /**
+     * Reads once from a channel and trades every complete line read.
+     *
+     * @param timed whether the lines are timed and signalled
+     * @return the number of bytes read, or -1 at the end of the channel,
+     * leaving an incomplete last line in the buffer
+     */
+    private int read(ReadableByteChannel channel, boolean timed)
+            throws IOException {
+        int n = channel.read(inputBuffer);
+        long arrived = System.nanoTime();
+        int end = inputBuffer.position();
+        int from = 0;
+        for (int i = 0; i < end; i++) {
+            if (input[i] == '\n') {
+                if (bar.parse(input, from, i)) {
+                    trade(timed);
+                    if (timed) {
+                        long latency = System.nanoTime() - arrived;
+                        latencies.record(latency);
+                        if (latency > budget) {
+                            overruns++;
+                        }
+                        bars++;
+                    }
+                }
+                from = i + 1;
+            }
+        }
+        if (from == 0 && end == input.length) {
+            throw new IOException("A line is longer than " + BUFFER_SIZE
+                    + " bytes");
+        }
+        // Carry the incomplete last line to the next read
+        System.arraycopy(input, from, input, 0, end - from);
+        inputBuffer.position(end - from);
+        return n;
+    }
+
+    /**
+     * Moves the indicators on by the parsed bar and, if every indicator is
+     * known, pushes the network to choose the new position.
+     *
+     * @param signal whether to write the signal
+     */
+    private void trade(boolean signal) throws IOException {
+        boolean known = true;
+        for (int j = 0; j < indicators.length; j++) {
+            features[j] = indicators[j].update(bar.open, bar.high, bar.low,
+                    bar.close);
+            known &= !Double.isNaN(features[j]);
+        }
+        if (known) {
+            state[0] = position;
+            brain.push(features, 0, state, outputs);
+            position = outputs.length == 0 ? 0.0
+                    : Math.max(-1.0, Math.min(1.0, outputs[0]));
+        } else {
+            position = 0.0;
+        }
+        if (signal) {
+            signal();
+        }
+    }
+
+    /**
+     * Writes the date of the bar as it was read and the position with four
+     * decimals.
+     */
+    private void signal() throws IOException {
+        int length = bar.dateTo - bar.dateFrom;
+        System.arraycopy(input, bar.dateFrom, output, 0, length);
+        int i = length;
+        output[i++] = ',';
+        output[i++] = ' ';
+        long fixed = Math.round(Math.abs(position) * 10000);
+        output[i++] = position < 0 && fixed != 0 ? (byte) '-' : (byte) ' ';
+        output[i++] = (byte) ('0' + fixed / 10000);
+        output[i++] = '.';
+        for (long unit = 1000; unit > 0; unit /= 10) {
+            output[i++] = (byte) ('0' + fixed / unit % 10);
+        }
+        output[i++] = '\n';
+        outputBuffer.clear();
+        outputBuffer.limit(i);
+        while (outputBuffer.hasRemaining()) {
+            signals.write(outputBuffer);
+        }
+    }
+
+    /**
+     * @return the latencies of the timed bars
+     */
+    public LatencyHistogram latencies() {
+        return latencies;
+    }
+
+    /**
+     * @return the number of timed bars over the budget
+     */
+    public long overruns() {
+        return overruns;
+    }
+
+    /**
+     * @return the position held after the last bar
+     */
+    public double position() {
+        return position;
+    }
+
+    private ScheduledExecutorService reporter() {
+        ScheduledExecutorService reporter
+                = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "live-report");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+        return reporter;
+    }
+
+    private void report() {
+        report(String.format("bars=%d overruns=%d latency %s", bars,
+                overruns, latencies));
+    }
+
+}
@@ -0,0 +1,403 @@
+package hackthemarket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Daily price bars held as columns of primitives in ascending time order.
+ * Bars are read from CSV lines of {@code date, open, high, low, close} with
+ * the date as {@code MM/dd/yy}, in either time order. The file is read a
+ * buffer at a time and each line is parsed in place by a
+ * {@link BarParser}, so nothing is allocated per line.
+ * <p>
+ * A parsed file is cached next to it in a binary file of the same name
+ * with {@code .bars} appended:
+ * <pre>
+ * header   magic, version, bars, reserved, source size, source time
+ * days     an int per bar, the epoch day, padded to 8 bytes
+ * columns  the opens, highs, lows and closes, a double per bar
+ * </pre>
+ * All values are little-endian. The cache is used while the size and
+ * modification time of the CSV match those in its header, and is read
+ * through a memory mapping with a bulk copy per column.
+ */
+public final class MarketData {
+
+    private static final int MAGIC = 0x48544D44;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The estimated number of bytes per line, used to size the columns.
+     */
+    private static final int LINE_SIZE = 48;
+
+    /**
+     * Loads the bars of a CSV file, from its cache if the cache is current.
+     * Otherwise the file is parsed and the cache is rewritten; a cache that
+     * cannot be written is skipped.
+     */
+    public static MarketData load(Path csv) throws IOException {
+        Path cache = cacheOf(csv);
+        long size = Files.size(csv);
+        long time = Files.getLastModifiedTime(csv).toMillis();
+        MarketData data = readCache(cache, size, time);
+        if (data == null) {
+            data = parse(csv);
+            try {
+                data.writeCache(cache, size, time);
+            } catch (IOException ex) {
+                Files.deleteIfExists(cache.resolveSibling(
+                        cache.getFileName() + ".tmp"));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return the path of the cache of a CSV file
+     */
+    public static Path cacheOf(Path csv) {
+        return csv.resolveSibling(csv.getFileName() + ".bars");
+    }
+
+    /**
+     * Parses the bars of a CSV file, without using its cache. A first line
+     * that is not a bar is taken as a header and skipped.
+     */
+    public static MarketData parse(Path csv) throws IOException {
+        try (FileChannel channel = FileChannel.open(csv,
+                StandardOpenOption.READ)) {
+            Parser parser = new Parser(
+                    (int) Math.min(channel.size() / LINE_SIZE + 1, 1 << 20));
+            byte[] bytes = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int end;
+            do {
+                end = channel.read(buffer);
+                int from = parser.feed(bytes, 0, buffer.position());
+                if (end < 0) {
+                    parser.line(bytes, from, buffer.position());
+                } else if (from == 0 && !buffer.hasRemaining()) {
+                    throw new IOException("A line of " + csv
+                            + " is longer than " + BUFFER_SIZE + " bytes");
+                } else {
+                    // Carry the incomplete last line to the next read
+                    System.arraycopy(bytes, from, bytes, 0,
+                            buffer.position() - from);
+                    buffer.position(buffer.position() - from);
+                }
+            } while (end >= 0);
+            return parser.finish(csv);
+        }
+    }
+
+    private static MarketData readCache(Path cache, long size, long time)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(cache,
+                StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            int n = map.getInt(8);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+                    || map.getLong(16) != size || map.getLong(24) != time
+                    || n < 0 || channel.size() != HEADER_SIZE
+                    + daysSize(n) + 4L * n * Double.BYTES) {
+                return null;
+            }
+            int[] days = new int[n];
+            column(map, HEADER_SIZE).asIntBuffer().get(days);
+            double[][] columns = new double[4][n];
+            long at = HEADER_SIZE + daysSize(n);
+            for (double[] column : columns) {
+                column(map, at).asDoubleBuffer().get(column);
+                at += (long) n * Double.BYTES;
+            }
+            return new MarketData(days, columns[0], columns[1], columns[2],
+                    columns[3]);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer column(ByteBuffer map, long at) {
+        map.position((int) at);
+        return map.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long daysSize(int n) {
+        return ((long) n * Integer.BYTES + 7) & ~7L;
+    }
+
+    private final int[] days;
+
+    private final double[] open;
+
+    private final double[] high;
+
+    private final double[] low;
+
+    private final double[] close;
+
+    private double[] returns;
+
+    MarketData(int[] days, double[] open, double[] high, double[] low,
+            double[] close) {
+        this.days = days;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+    }
+
+    private void writeCache(Path cache, long size, long time)
+            throws IOException {
+        int n = days.length;
+        Path temporary = cache.resolveSibling(cache.getFileName() + ".tmp");
+        long length = HEADER_SIZE + daysSize(n) + 4L * n * Double.BYTES;
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE,
+                    0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(8, n);
+            map.putLong(16, size);
+            map.putLong(24, time);
+            column(map, HEADER_SIZE).asIntBuffer().put(days);
+            long at = HEADER_SIZE + daysSize(n);
+            for (double[] column : new double[][]{open, high, low, close}) {
+                column(map, at).asDoubleBuffer().put(column);
+                at += (long) n * Double.BYTES;
+            }
+            map.force();
+        }
+        try {
+            Files.move(temporary, cache, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the number of bars
+     */
+    public int size() {
+        return days.length;
+    }
+
+    /**
+     * @return the epoch day of the i-th bar
+     */
+    public int day(int i) {
+        return days[i];
+    }
+
+    /**
+     * @return the date of the i-th bar
+     */
+    public LocalDate date(int i) {
+        return LocalDate.ofEpochDay(days[i]);
+    }
+
+    public double open(int i) {
+        return open[i];
+    }
+
+    public double high(int i) {
+        return high[i];
+    }
+
+    public double low(int i) {
+        return low[i];
+    }
+
+    public double close(int i) {
+        return close[i];
+    }
+
+    /**
+     * @return the index of the first bar on or after an epoch day, or the
+     * number of bars if there is none
+     */
+    public int at(int day) {
+        int lo = 0;
+        int hi = days.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (days[mid] < day) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The columns are shared, not copied, and must not be changed.
+     */
+    int[] days() {
+        return days;
+    }
+
+    double[] opens() {
+        return open;
+    }
+
+    double[] highs() {
+        return high;
+    }
+
+    double[] lows() {
+        return low;
+    }
+
+    double[] closes() {
+        return close;
+    }
+
+    /**
+     * The log returns from each close to the next, computed on first use
+     * and then shared, and not to be changed. The first return is zero.
+     */
+    synchronized double[] returns() {
+        if (returns == null) {
+            double[] r = new double[close.length];
+            for (int i = 1; i < r.length; i++) {
+                r[i] = Math.log(close[i] / close[i - 1]);
+            }
+            returns = r;
+        }
+        return returns;
+    }
+
+    @Override
+    public String toString() {
+        return days.length == 0 ? "MarketData[]"
+                : String.format("MarketData[%d bars, %s to %s]", days.length,
+                        date(0), date(days.length - 1));
+    }
+
+    /**
+     * Builds the columns from the lines of a CSV file.
+     */
+    private static final class Parser {
+
+        private final BarParser bar;
+
+        private int[] days;
+
+        private double[][] prices;
+
+        private int n;
+
+        private Parser(int capacity) {
+            bar = new BarParser();
+            days = new int[capacity];
+            prices = new double[4][capacity];
+            n = 0;
+        }
+
+        /**
+         * Parses the complete lines of a buffer.
+         *
+         * @return the index of the first byte not parsed
+         */
+        private int feed(byte[] b, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                if (b[i] == '\n') {
+                    line(b, from, i);
+                    from = i + 1;
+                }
+            }
+            return from;
+        }
+
+        private void line(byte[] b, int from, int to) throws IOException {
+            if (!bar.parse(b, from, to)) {
+                return;
+            }
+            if (n == days.length) {
+                grow();
+            }
+            days[n] = bar.day;
+            prices[0][n] = bar.open;
+            prices[1][n] = bar.high;
+            prices[2][n] = bar.low;
+            prices[3][n] = bar.close;
+            n++;
+        }
+
+        private void grow() {
+            int capacity = 2 * days.length + 1;
+            days = Arrays.copyOf(days, capacity);
+            for (int j = 0; j < prices.length; j++) {
+                prices[j] = Arrays.copyOf(prices[j], capacity);
+            }
+        }
+
+        private MarketData finish(Path csv) throws IOException {
+            int[] d = Arrays.copyOf(days, n);
+            double[][] p = new double[prices.length][];
+            for (int j = 0; j < prices.length; j++) {
+                p[j] = Arrays.copyOf(prices[j], n);
+            }
+            if (n > 1 && d[0] > d[n - 1]) {
+                reverse(d);
+                for (double[] column : p) {
+                    reverse(column);
+                }
+            }
+            for (int i = 1; i < n; i++) {
+                if (d[i] <= d[i - 1]) {
+                    throw new IOException("The bars of " + csv
+                            + " are not in time order at "
+                            + LocalDate.ofEpochDay(d[i]));
+                }
+            }
+            return new MarketData(d, p[0], p[1], p[2], p[3]);
+        }
+
+        private static void reverse(int[] a) {
+            for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+                int t = a[i];
+                a[i] = a[j];
+                a[j] = t;
+            }
+        }
+
+        private static void reverse(double[] a) {
+            for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+                double t = a[i];
+                a[i] = a[j];
+                a[j] = t;
+            }
+        }
+
+    }
+
+}
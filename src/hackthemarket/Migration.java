@@ -0,0 +1,25 @@
+package hackthemarket;
+
+import java.util.List;
+
+/**
+ * Carries genomes between the islands of an {@link Archipelago}. Every
+ * island calls {@link #exchange(int, List)} at the same generations, from
+ * its own thread.
+ */
+public interface Migration {
+
+    /**
+     * Sends emigrants from an island and receives its immigrants.
+     *
+     * @param island the index of the island
+     * @param emigrants copies of the genomes leaving the island, with their
+     * fitness
+     * @return the genomes arriving at the island, numbered in the
+     * innovation space of the island they left
+     * @throws InterruptedException if interrupted while waiting
+     */
+    List<Genome> exchange(int island, List<Genome> emigrants)
+            throws InterruptedException;
+
+}
@@ -0,0 +1,212 @@
+package hackthemarket;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates many networks on the same inputs at once, such as a row of a
+ * {@link FeatureMatrix}, each followed by a few inputs of its own. Networks
+ * that share a {@link Topology} are packed into a block whose weights and
+ * signals are stored lane by lane, so that every neuron and connection is
+ * processed for the whole block in one tight loop over contiguous memory
+ * that the JIT compiler can vectorize.
+ * <p>
+ * The batch keeps its own signals, starting from rest, and does not touch
+ * the state of the networks it was built from.
+ */
+public class NetworkBatch {
+
+    private static final double BIAS_SIGNAL = 1.0f;
+
+    private final Block[] blocks;
+
+    private final int size;
+
+    public NetworkBatch(List<NeuralNetwork> networks) {
+        Map<Topology, List<Integer>> groups = Util.newMap();
+        for (int i = 0; i < networks.size(); i++) {
+            Topology topology = networks.get(i).topology();
+            List<Integer> group = groups.get(topology);
+            if (group == null) {
+                group = Util.newList();
+                groups.put(topology, group);
+            }
+            group.add(i);
+        }
+        blocks = new Block[groups.size()];
+        int b = 0;
+        for (Map.Entry<Topology, List<Integer>> group : groups.entrySet()) {
+            blocks[b++] = new Block(group.getKey(), group.getValue(), networks);
+        }
+        size = networks.size();
+    }
+
+    /**
+     * @return the number of networks in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct structures in this batch
+     */
+    public int numBlocks() {
+        return blocks.length;
+    }
+
+    /**
+     * Evaluates every network on a row of a larger array, followed by the
+     * inputs of its own, as {@link NeuralNetwork#push(double[], int,
+     * double[], double[])} does for one network.
+     *
+     * @param X the array holding the row shared by every network
+     * @param offset the index of the row in X
+     * @param S the input signals after the row of network {@code i} in
+     * {@code S[i]}, all of the same length
+     * @param Y receives the output signals of network {@code i} in
+     * {@code Y[i]}
+     */
+    public void push(double[] X, int offset, double[][] S, double[][] Y) {
+        for (Block block : blocks) {
+            block.send(X, offset, S);
+            if (block.topology.feedForward) {
+                block.evaluate(Y);
+            } else {
+                block.step(Y);
+            }
+        }
+    }
+
+    /**
+     * Networks with a common structure. The value of neuron or connection
+     * {@code i} in lane {@code l} is stored at {@code i * lanes + l}.
+     */
+    private static final class Block {
+
+        private final Topology topology;
+
+        private final Activation activation;
+
+        private final int[] members;
+
+        private final int lanes;
+
+        private final double[] weights;
+
+        private final double[] forward;
+
+        private double[] buffer;
+
+        private double[] receive;
+
+        private Block(Topology topology, List<Integer> indices,
+                List<NeuralNetwork> networks) {
+            this.topology = topology;
+            lanes = indices.size();
+            members = new int[lanes];
+            activation = networks.get(indices.get(0)).activation();
+            int E = topology.numEdges();
+            weights = new double[E * lanes];
+            for (int l = 0; l < lanes; l++) {
+                members[l] = indices.get(l);
+                double[] w = networks.get(members[l]).weights();
+                for (int e = 0; e < E; e++) {
+                    weights[e * lanes + l] = w[e];
+                }
+            }
+            int N = topology.size();
+            forward = new double[N * lanes];
+            buffer = new double[N * lanes];
+            receive = new double[N * lanes];
+        }
+
+        private void send(double[] X, int offset, double[][] S) {
+            final int[] inputs = topology.inputs;
+            final int[] biases = topology.biases;
+            int row = inputs.length - S[members[0]].length;
+            for (int i = 0; i < row; i++) {
+                int base = inputs[i] * lanes;
+                double x = X[offset + i];
+                for (int l = 0; l < lanes; l++) {
+                    receive[base + l] += x;
+                }
+            }
+            for (int i = row; i < inputs.length; i++) {
+                int base = inputs[i] * lanes;
+                for (int l = 0; l < lanes; l++) {
+                    receive[base + l] += S[members[l]][i - row];
+                }
+            }
+            for (int i = 0; i < biases.length; i++) {
+                int base = biases[i] * lanes;
+                for (int l = 0; l < lanes; l++) {
+                    receive[base + l] += BIAS_SIGNAL;
+                }
+            }
+        }
+
+        private void fire(int n, double[] signals) {
+            int base = n * lanes;
+            double threshold = topology.thresholds[n];
+            for (int l = 0; l < lanes; l++) {
+                double signal = signals[base + l];
+                forward[base + l] = signal > threshold
+                        ? activation.apply(signal) : 0.0;
+            }
+        }
+
+        private void fan(int n) {
+            final int[] offsets = topology.offsets;
+            final int[] targets = topology.targets;
+            int base = n * lanes;
+            for (int e = offsets[n]; e < offsets[n + 1]; e++) {
+                int target = targets[e] * lanes;
+                int weight = e * lanes;
+                for (int l = 0; l < lanes; l++) {
+                    receive[target + l] += weights[weight + l] * forward[base + l];
+                }
+            }
+        }
+
+        private void collect(double[][] Y) {
+            final int[] outputs = topology.outputs;
+            for (int i = 0; i < outputs.length; i++) {
+                int base = outputs[i] * lanes;
+                for (int l = 0; l < lanes; l++) {
+                    Y[members[l]][i] = forward[base + l];
+                }
+            }
+        }
+
+        private void evaluate(double[][] Y) {
+            int N = topology.size();
+            for (int n = 0; n < N; n++) {
+                int base = n * lanes;
+                System.arraycopy(receive, base, buffer, base, lanes);
+                Arrays.fill(receive, base, base + lanes, 0.0);
+                fire(n, buffer);
+                fan(n);
+            }
+            collect(Y);
+        }
+
+        private void step(double[][] Y) {
+            double[] flushed = buffer;
+            buffer = receive;
+            receive = flushed;
+            Arrays.fill(receive, 0.0);
+            int N = topology.size();
+            for (int n = 0; n < N; n++) {
+                fire(n, buffer);
+            }
+            for (int n = 0; n < N; n++) {
+                fan(n);
+            }
+            collect(Y);
+        }
+
+    }
+
+}
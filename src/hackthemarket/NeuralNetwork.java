@@ -1,108 +1,234 @@
 package hackthemarket;
 
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
+/**
+ * A neural network compiled from a genome into flat primitive arrays. The
+ * structure lives in a {@link Topology} and the network holds the weights
+ * and the neuron signals.
+ * <p>
+ * Acyclic genomes are evaluated in a single pass per input. Genomes with
+ * cycles keep the recurrent behaviour where signals move one connection
+ * per push. A neuron fires only when its signal exceeds its threshold, and
+ * then through the {@link Activation} current when the network was built.
+ */
 public class NeuralNetwork {
 
     private static final double BIAS_SIGNAL = 1.0f;
 
-    private final Neuron[] inputs;
+    private final Topology topology;
 
-    private final Neuron[] outputs;
+    private final Activation activation;
 
-    private final Neuron[] biases;
+    private final double[] weights;
 
-    private final Map<Integer, Neuron> network;
+    private final double[] forward;
+
+    private double[] buffer;
+
+    private double[] receive;
 
     public NeuralNetwork(Genome genome) {
-        List<Node> nodes = genome.nodes();
-        List<Link> links = genome.links();
-
-        List<Neuron> inputNeurons = Util.newList();
-        List<Neuron> outputNeurons = Util.newList();
-        List<Neuron> biasNeurons = Util.newList();
-        network = Util.newMap();
-        int numNodes = nodes.size();
-        for (int i = 0; i < numNodes; i++) {
-            Node node = nodes.get(i);
-            Neuron neuron = new Neuron(node.key(), node.threshold());
-            network.put(node.key(), neuron);
-            Allele allele = node.allele();
-            if (allele.equals(Allele.Input)) {
-                inputNeurons.add(neuron);
-            } else if (allele.equals(Allele.Output)) {
-                outputNeurons.add(neuron);
-            } else if (allele.equals(Allele.Bias)) {
-                biasNeurons.add(neuron);
-            }
-        }
-        inputs = inputNeurons.toArray(new Neuron[]{});
-        outputs = outputNeurons.toArray(new Neuron[]{});
-        biases = biasNeurons.toArray(new Neuron[]{});
-
-        for (Link link : links) {
-            if (link.isEnabled()) {
-                Neuron output = network.get(link.out());
-                if (output == null) {
-                    int key = link.out();
-                    Node node = new Node(key, Allele.Hidden);
-                    nodes.add(node);
-                    output = new Neuron(key, node.threshold());
-                    network.put(key, output);
-                }
-                Neuron input = network.get(link.in());
-                if (input == null) {
-                    int key = link.in();
-                    Node node = new Node(key, Allele.Hidden);
-                    nodes.add(node);
-                    input = new Neuron(key, node.threshold());
-                    network.put(key, input);
-                }
-                double weight = link.weight();
-                Connection conn = new Connection(output, weight);
-                input.attach(conn);
-            }
-        }
-        Collections.sort(nodes);
-        Collections.sort(links);
+        this(new Topology(genome), genome);
     }
 
+    /**
+     * Creates a network with a known structure.
+     *
+     * @param topology the structure of the genome
+     * @param genome the genome providing the weights
+     */
+    public NeuralNetwork(Topology topology, Genome genome) {
+        this.topology = topology;
+        activation = Activation.current();
+        int N = topology.size();
+        weights = new double[topology.numEdges()];
+        topology.weigh(genome, weights);
+        forward = new double[N];
+        buffer = new double[N];
+        receive = new double[N];
+    }
+
+    /**
+     * @return the structure of this network
+     */
+    public Topology topology() {
+        return topology;
+    }
+
+    /**
+     * @return the activation function of the neurons
+     */
+    public Activation activation() {
+        return activation;
+    }
+
+    /**
+     * @return the connection weights, indexed by connection slot
+     */
+    double[] weights() {
+        return weights;
+    }
+
+    /**
+     * @return the number of neurons in this network
+     */
+    public int size() {
+        return topology.size();
+    }
+
+    /**
+     * @return the number of input neurons
+     */
+    public int numInputs() {
+        return topology.numInputs();
+    }
+
+    /**
+     * @return the number of output neurons
+     */
+    public int numOutputs() {
+        return topology.numOutputs();
+    }
+
+    /**
+     * @return whether the network is evaluated in a single pass
+     */
+    public boolean isFeedForward() {
+        return topology.feedForward;
+    }
+
+    /**
+     * Settles a recurrent network by repeatedly pushing a signal. A
+     * feed-forward network carries no state between pushes and is left
+     * unchanged.
+     *
+     * @param p the priming signal
+     */
     public void prime(double p) {
-        int P = network.size();
+        if (topology.feedForward) {
+            return;
+        }
+        int P = size();
         double[] prime = {p};
+        double[] Y = new double[numOutputs()];
         for (int i = 0; i < P; i++) {
-            push(prime);
+            push(prime, Y);
         }
     }
 
     public double[] push(double[] X) {
-        // Send the input signals into the network
-        for (int i = 0; i < X.length; i++) {
-            inputs[i].receive(X[i]);
+        double[] Y = new double[numOutputs()];
+        push(X, Y);
+        return Y;
+    }
+
+    /**
+     * Evaluates the network on a set of inputs. Feed-forward networks
+     * propagate the inputs all the way to the outputs, while recurrent
+     * networks move the signals forward by one connection.
+     *
+     * @param X the input signals
+     * @param Y receives the output signals
+     */
+    public void push(double[] X, double[] Y) {
+        send(X, 0, 0, X.length);
+        fire(Y);
+    }
+
+    /**
+     * Evaluates the network on a row of a larger array, such as a
+     * {@link FeatureMatrix}, without copying the row. The inputs of the
+     * row are followed by those of a small array of the caller's own.
+     *
+     * @param X the array holding the row
+     * @param offset the index of the row in X
+     * @param S the input signals after the row, which may be empty
+     * @param Y receives the output signals
+     */
+    public void push(double[] X, int offset, double[] S, double[] Y) {
+        int row = numInputs() - S.length;
+        send(X, offset, 0, row);
+        send(S, 0, row, S.length);
+        fire(Y);
+    }
+
+    private void send(double[] X, int offset, int first, int count) {
+        final int[] inputs = topology.inputs;
+        for (int i = 0; i < count; i++) {
+            receive[inputs[first + i]] += X[offset + i];
+        }
+    }
+
+    private void fire(double[] Y) {
+        if (topology.feedForward) {
+            evaluate(Y);
+        } else {
+            step(Y);
         }
-        // Send the bias signals into the network
+    }
+
+    private void evaluate(double[] Y) {
+        final int[] outputs = topology.outputs;
+        final int[] biases = topology.biases;
+        final int[] offsets = topology.offsets;
+        final int[] targets = topology.targets;
+        final double[] thresholds = topology.thresholds;
+        // The inputs have been sent, so send the bias signals
         for (int i = 0; i < biases.length; i++) {
-            biases[i].receive(BIAS_SIGNAL);
+            receive[biases[i]] += BIAS_SIGNAL;
         }
-        // Flush the receivers of all the neurons
-        Iterator<Neuron> neurons = network.values().iterator();
-        while (neurons.hasNext()) {
-            neurons.next().flush();
+        // Every neuron has received all of its signals by its turn
+        int N = thresholds.length;
+        for (int n = 0; n < N; n++) {
+            double signal = receive[n];
+            receive[n] = 0.0;
+            buffer[n] = signal;
+            double f = signal > thresholds[n] ? activation.apply(signal) : 0.0;
+            forward[n] = f;
+            if (f != 0.0) {
+                for (int e = offsets[n]; e < offsets[n + 1]; e++) {
+                    receive[targets[e]] += weights[e] * f;
+                }
+            }
+        }
+        // Retrieve output signals
+        for (int i = 0; i < outputs.length; i++) {
+            Y[i] = forward[outputs[i]];
         }
+    }
+
+    private void step(double[] Y) {
+        final int[] outputs = topology.outputs;
+        final int[] biases = topology.biases;
+        final int[] offsets = topology.offsets;
+        final int[] targets = topology.targets;
+        final double[] thresholds = topology.thresholds;
+        // The inputs have been sent, so send the bias signals
+        for (int i = 0; i < biases.length; i++) {
+            receive[biases[i]] += BIAS_SIGNAL;
+        }
+        // Flush the receivers of all the neurons
+        double[] flushed = buffer;
+        buffer = receive;
+        receive = flushed;
+        Arrays.fill(receive, 0.0);
         // Forward the neuron signals
-        neurons = network.values().iterator();
-        while (neurons.hasNext()) {
-            neurons.next().forward();
+        int N = thresholds.length;
+        for (int n = 0; n < N; n++) {
+            double signal = buffer[n];
+            double f = signal > thresholds[n] ? activation.apply(signal) : 0.0;
+            forward[n] = f;
+            if (f != 0.0) {
+                for (int e = offsets[n]; e < offsets[n + 1]; e++) {
+                    receive[targets[e]] += weights[e] * f;
+                }
+            }
         }
         // Retrieve output signals
-        double[] Y = new double[outputs.length];
-        for (int i = 0; i < Y.length; i++) {
-            Y[i] = outputs[i].val();
+        for (int i = 0; i < outputs.length; i++) {
+            Y[i] = forward[outputs[i]];
         }
-        return Y;
     }
 
     /**
@@ -110,11 +236,22 @@ public class NeuralNetwork {
      */
     @Override
     public String toString() {
-        Iterator<Neuron> neurons = network.values().iterator();
         StringBuilder sb = new StringBuilder();
         sb.append("Neural Network:").append('\n');
-        while (neurons.hasNext()) {
-            sb.append(neurons.next().toString());
+        final int[] keys = topology.keys;
+        final int[] offsets = topology.offsets;
+        final int[] targets = topology.targets;
+        for (int n = 0; n < keys.length; n++) {
+            sb.append("Neuron: Key = ").append(keys[n]);
+            sb.append(", R = ").append(String.format("%.2f", receive[n]));
+            sb.append(", B = ").append(String.format("%.2f", buffer[n]));
+            sb.append(", F = ").append(String.format("%.2f", forward[n]));
+            for (int e = offsets[n]; e < offsets[n + 1]; e++) {
+                sb.append(", Conn: N = ").append(keys[targets[e]])
+                        .append(", W = ")
+                        .append(String.format("%.2f", weights[e]));
+            }
+            sb.append('\n');
         }
         return sb.toString();
     }
@@ -2,9 +2,11 @@ package hackthemarket;
 
 import java.io.Serializable;
 import static java.lang.Math.floor;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class Population implements Serializable {
 
@@ -13,39 +15,146 @@ public class Population implements Serializable {
     private static final int MAX_STAGNATION = 100;
     private static final long serialVersionUID = 13241235L;
 
-    private static void insert(Genome g, List<Species> species) {
-        for (Species s : species) {
-            if (s.insert(g)) {
-                return;
-            }
-        }
-        species.add(new Species(g));
-    }
+    private static final Speciation SPECIATION = new Speciation();
+
+    private static final Breeding BREEDER = new Breeding();
+
+    /**
+     * The key of the stream used to breed a generation.
+     */
+    public static final long BREEDING = 0;
+
+    /**
+     * The key of the stream used to evaluate a generation.
+     */
+    public static final long EVALUATION = 1;
 
     private final GeneticAlgorithm GA;
 
+    private final Rng rng;
+
+    private final int generation;
+
+    private long replacements;
+
     private final List<Species> species;
 
     private final int size;
 
+    private final Statistics statistics;
+
     public Population(int size, Genome seed, GeneticAlgorithm GA) {
+        this(size, seed, GA, Rng.fromProperty());
+    }
+
+    public Population(int size, Genome seed, GeneticAlgorithm GA, Rng rng) {
         this.size = size;
         this.GA = GA;
+        this.rng = rng;
+        generation = 0;
+        replacements = 0;
         species = Util.newList();
+        List<Genome> genomes = Util.newList();
         for (int n = 0; n < size; n++) {
-            insert(seed.copy(), species);
+            genomes.add(seed.copy());
+        }
+        SPECIATION.insert(genomes, species);
+        statistics = new Statistics();
+        for (Species s : species) {
+            s.observe(statistics);
         }
     }
 
-    private Population(int size, List<Species> species,
-            GeneticAlgorithm GA) {
+    Population(int size, List<Species> species,
+            GeneticAlgorithm GA, Rng rng, int generation, long replacements) {
         this.size = size;
         this.species = species;
         this.GA = GA;
+        this.rng = rng;
+        this.generation = generation;
+        this.replacements = replacements;
+        statistics = new Statistics();
+        double[] fitnesses = new double[size];
+        int n = 0;
+        for (Species s : species) {
+            s.observe(statistics);
+            for (int i = 0; i < s.size(); i++) {
+                if (n == fitnesses.length) {
+                    fitnesses = Arrays.copyOf(fitnesses, 2 * n + 1);
+                }
+                fitnesses[n++] = s.get(i).getFitness();
+            }
+        }
+        statistics.recordAll(fitnesses, n);
+    }
+
+    /**
+     * @return the genetic algorithm of this population
+     */
+    public GeneticAlgorithm GA() {
+        return GA;
+    }
+
+    /**
+     * @return the species of this population, which must not be changed
+     */
+    List<Species> species() {
+        return species;
+    }
+
+    /**
+     * @return the number of generations evolved from the seed
+     */
+    public int generation() {
+        return generation;
+    }
+
+    /**
+     * @return the number of genomes replaced one at a time since the seed
+     */
+    public long replacements() {
+        return replacements;
+    }
+
+    /**
+     * @return the randomness of the run
+     */
+    public Rng rng() {
+        return rng;
+    }
+
+    /**
+     * @param key the purpose of the stream
+     * @return the stream for a purpose in this generation
+     */
+    public SplittableRandom random(long key) {
+        return rng.stream(generation, key);
+    }
+
+    /**
+     * @return the fitnesses assigned in this generation so far
+     */
+    public Statistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the fittest genome evaluated so far, or {@code null}
+     */
+    public Genome champion() {
+        Genome champion = null;
+        for (Species s : species) {
+            Genome best = s.best();
+            if (best != null && (champion == null
+                    || best.getFitness() > champion.getFitness())) {
+                champion = best;
+            }
+        }
+        return champion;
     }
 
     /**
-     * @return an iterator over all of the genomes in this population
+     * @return all of the genomes in this population, species by species
      */
     public List<Genome> getGenomeList() {
         List<Genome> genomes = Util.newList();
@@ -55,7 +164,6 @@ public class Population implements Serializable {
                 genomes.add(iter.next());
             }
         }
-        Collections.sort(genomes);
         return genomes;
     }
 
@@ -63,7 +171,109 @@ public class Population implements Serializable {
         return getGenomeList().iterator();
     }
 
+    /**
+     * Adds evaluated genomes from another population, which compete as
+     * parents when this population evolves.
+     *
+     * @param immigrants genomes numbered in another innovation space
+     */
+    public void immigrate(List<Genome> immigrants) {
+        List<Genome> adopted = Util.newList();
+        for (Genome g : immigrants) {
+            adopted.add(GA.adopt(g));
+        }
+        SPECIATION.insert(adopted, species);
+        for (Species s : species) {
+            s.observe(statistics);
+        }
+    }
+
+    /**
+     * @return the number of genomes in this population
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the least fit evaluated genome, or {@code null}
+     */
+    public Genome weakest() {
+        Genome weakest = null;
+        for (Species s : species) {
+            Genome g = s.weakest();
+            if (g != null && (weakest == null
+                    || g.getFitness() < weakest.getFitness())) {
+                weakest = g;
+            }
+        }
+        return weakest;
+    }
+
+    /**
+     * Breeds a single child from the evaluated genomes, choosing its
+     * species in proportion to their average fitness. This lets the
+     * population evolve one genome at a time rather than by generation.
+     *
+     * @return the child, or {@code null} if no genome is evaluated
+     */
+    public Genome offspring(SplittableRandom rng) {
+        double lowest = Double.POSITIVE_INFINITY;
+        int candidates = 0;
+        for (Species s : species) {
+            if (s.evaluated() > 0) {
+                lowest = Math.min(lowest, s.average());
+                candidates++;
+            }
+        }
+        if (candidates == 0) {
+            return null;
+        }
+        double total = 0.0;
+        for (Species s : species) {
+            if (s.evaluated() > 0) {
+                total += s.average() - lowest;
+            }
+        }
+        double x = rng.nextDouble() * (total > 0 ? total : candidates);
+        Species chosen = null;
+        for (Species s : species) {
+            if (s.evaluated() > 0) {
+                chosen = s;
+                x -= total > 0 ? s.average() - lowest : 1;
+                if (x < 0) {
+                    break;
+                }
+            }
+        }
+        Genome g1 = chosen.contest(rng);
+        Genome g2 = chosen.contest(rng);
+        Genome child = GA.spawn(g1, g2, false, rng);
+        GA.innovate(child);
+        return child;
+    }
+
+    /**
+     * Replaces a genome with another, dropping its species if it empties.
+     *
+     * @param old a genome of this population
+     * @param g a genome to speciate in its place
+     */
+    public void replace(Genome old, Genome g) {
+        Species s = old.species;
+        s.remove(old);
+        if (s.size() == 0) {
+            species.remove(s);
+        }
+        List<Genome> genomes = Util.newList();
+        genomes.add(g);
+        SPECIATION.insert(genomes, species);
+        g.species.observe(statistics);
+        replacements++;
+    }
+
     public Population evolve() {
+        GA.advance(getGenomeList());
         // Compute the hierarchy of each species
         for (Species s : species) {
             s.hierarchy();
@@ -96,35 +306,58 @@ public class Population implements Serializable {
             }
         }
         species.removeAll(extinct);
-        // Breed new offspring for each species based on their fitness
+        // Choose the parents of new offspring for each species based on
+        // their fitness, then fill the rest of the population with hybrids
         List<Species> posterity = Util.newList();
-        List<Genome> offspring = Util.newList();
+        List<Genome> mothers = Util.newList();
+        List<Genome> fathers = Util.newList();
+        SplittableRandom random = random(BREEDING);
+        Selection selection = GA.selection();
         int N = 0;
         for (Species s : species) {
             int n = (int) floor(s.average() / total * size) - 1;
             N += n + 1;
-            for (int i = 0; i < n; i++) {
-                offspring.add(GA.breed(s, s));
+            if (n > 0) {
+                // Draw every parent of the species at once, then pair them
+                int[] picks = new int[2 * n];
+                selection.sample(s, random, picks);
+                shuffle(picks, random);
+                for (int i = 0; i < n; i++) {
+                    mothers.add(s.get(picks[2 * i]));
+                    fathers.add(s.get(picks[2 * i + 1]));
+                }
             }
-            posterity.add(new Species(s.elite()));
-        }
-        for (Genome child : offspring) {
-            insert(child, posterity);
+            posterity.add(new Species(s.elite(), s.best().getFitness()));
         }
-        // Fill the rest of the population with hybrids
-        List<Genome> hybrids = Util.newList();
+        int numOffspring = mothers.size();
         Bound B = new Bound(0, species.size() - 1);
         while (N < size) {
             N++;
-            Species s1 = species.get(B.randInt());
-            Species s2 = species.get(B.randInt());
-            hybrids.add(GA.breed(s1, s2));
-        }
-        for (Genome hybrid : hybrids) {
-            insert(hybrid, posterity);
+            mothers.add(selection.select(species.get(B.randInt(random)),
+                    random));
+            fathers.add(selection.select(species.get(B.randInt(random)),
+                    random));
         }
+        // Breed the children in parallel and speciate them
+        List<Genome> children = BREEDER.breed(GA, mothers, fathers, random);
+        SPECIATION.insert(children.subList(0, numOffspring), posterity);
+        SPECIATION.insert(children.subList(numOffspring, children.size()),
+                posterity);
         // Create the new population
-        return new Population(size, posterity, GA);
+        return new Population(size, posterity, GA, rng, generation + 1,
+                replacements);
+    }
+
+    /**
+     * Shuffles an array in place.
+     */
+    private static void shuffle(int[] a, SplittableRandom rng) {
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
     }
 
 }
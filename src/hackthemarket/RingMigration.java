@@ -0,0 +1,31 @@
+package hackthemarket;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Migration around a ring of islands through in-process queues. Each
+ * island sends to the next and waits for the previous one, so an island
+ * only ever waits for its neighbour and the genomes received do not depend
+ * on how the threads were scheduled.
+ */
+public class RingMigration implements Migration {
+
+    private final List<BlockingQueue<List<Genome>>> queues;
+
+    public RingMigration(int islands) {
+        queues = Util.newList();
+        for (int i = 0; i < islands; i++) {
+            queues.add(new LinkedBlockingQueue<List<Genome>>());
+        }
+    }
+
+    @Override
+    public List<Genome> exchange(int island, List<Genome> emigrants)
+            throws InterruptedException {
+        queues.get((island + 1) % queues.size()).put(emigrants);
+        return queues.get(island).take();
+    }
+
+}
@@ -0,0 +1,67 @@
+package hackthemarket;
+
+import java.io.Serializable;
+import java.util.SplittableRandom;
+
+/**
+ * The source of randomness of a run. A run has a single seed, from which
+ * independent {@link SplittableRandom} streams are derived by key, so a
+ * stream depends only on the seed and its keys and never on which thread
+ * asks for it or when. Streams are in turn split in a fixed order to give
+ * each genome its own generator.
+ */
+public class Rng implements Serializable {
+
+    public static final String SEED_PROPERTY = "hackthemarket.seed";
+
+    private static final long serialVersionUID = 1617L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * @return a run seeded from the {@value #SEED_PROPERTY} system
+     * property, or from the clock if it is not set
+     */
+    public static Rng fromProperty() {
+        String seed = System.getProperty(SEED_PROPERTY);
+        if (seed == null) {
+            return new Rng(mix64(System.nanoTime() ^ System.currentTimeMillis()));
+        }
+        return new Rng(Long.parseLong(seed));
+    }
+
+    /**
+     * Stafford's variant 13 of the MurmurHash3 finalizer.
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private final long seed;
+
+    public Rng(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the seed of this run
+     */
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * @param keys the path of the stream, such as a generation and a purpose
+     * @return the stream for the keys
+     */
+    public SplittableRandom stream(long... keys) {
+        long z = seed;
+        for (long key : keys) {
+            z = mix64(z + GOLDEN_GAMMA * (key + 1));
+        }
+        return new SplittableRandom(z);
+    }
+
+}
@@ -0,0 +1,101 @@
+package hackthemarket;
+
+import java.util.SplittableRandom;
+
+/**
+ * A strategy for choosing a parent from a species. Every strategy works on
+ * the members of the species in descending order of fitness, as left by
+ * {@link Species#hierarchy()}, and picks by index without allocating.
+ */
+public enum Selection {
+
+    /**
+     * The fittest of a tenth of the members, drawn without repetition.
+     * Since the members are sorted, the winner is the lowest index drawn,
+     * which sequential sampling finds without drawing the others: index
+     * {@code i} is the first drawn with chance {@code k / (n - i)} once
+     * the indices below it were passed over.
+     */
+    Tournament {
+        @Override
+        public int index(Species species, SplittableRandom rng) {
+            int n = species.size();
+            int k = (int) Math.ceil(n * TOURNAMENT_RATIO);
+            for (int i = 0; i < n - 1; i++) {
+                if (rng.nextInt(n - i) < k) {
+                    return i;
+                }
+            }
+            return n - 1;
+        }
+    },
+    /**
+     * Linear ranking, where the member of rank {@code i} is chosen with a
+     * chance proportional to {@code n - i}. The triangular distribution is
+     * inverted directly.
+     */
+    Rank {
+        @Override
+        public int index(Species species, SplittableRandom rng) {
+            int n = species.size();
+            double u = (1 - rng.nextDouble()) * n * (n + 1) / 2;
+            int r = (int) Math.ceil((Math.sqrt(1 + 8 * u) - 1) / 2);
+            return clamp(n - r, n);
+        }
+    },
+    /**
+     * Fitness proportionate selection over the fitness of each member
+     * above the weakest one. Several parents are drawn with stochastic
+     * universal sampling: one spin places evenly spaced pointers, which
+     * keeps the number of picks of each member close to its expectation.
+     */
+    Universal {
+        @Override
+        public int index(Species species, SplittableRandom rng) {
+            return species.locate(rng.nextDouble() * species.total());
+        }
+
+        @Override
+        public void sample(Species species, SplittableRandom rng,
+                int[] picks) {
+            double step = species.total() / picks.length;
+            double pointer = rng.nextDouble() * step;
+            for (int j = 0; j < picks.length; j++) {
+                picks[j] = species.locate(pointer);
+                pointer += step;
+            }
+        }
+    };
+
+    private static final double TOURNAMENT_RATIO = 0.10;
+
+    private static int clamp(int i, int n) {
+        return i < 0 ? 0 : i >= n ? n - 1 : i;
+    }
+
+    /**
+     * @param species a species sorted by {@link Species#hierarchy()}
+     * @return the index of the chosen member
+     */
+    public abstract int index(Species species, SplittableRandom rng);
+
+    /**
+     * Chooses several members at once.
+     *
+     * @param picks receives the indices of the chosen members
+     */
+    public void sample(Species species, SplittableRandom rng, int[] picks) {
+        for (int j = 0; j < picks.length; j++) {
+            picks[j] = index(species, rng);
+        }
+    }
+
+    /**
+     * @param species a species sorted by {@link Species#hierarchy()}
+     * @return the chosen member
+     */
+    public Genome select(Species species, SplittableRandom rng) {
+        return species.get(index(species, rng));
+    }
+
+}
@@ -0,0 +1,119 @@
+package hackthemarket;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts genomes into species. Each genome is compared against a snapshot
+ * of the species representatives in parallel, and the genomes are then
+ * assigned in order to the first species they match. Genomes matching no
+ * existing species are checked in order against the species created
+ * during the same pass, so the result is the same as inserting the
+ * genomes one at a time.
+ */
+public class Speciation {
+
+    private static final int GRAIN = 16;
+
+    private static final int NO_MATCH = -1;
+
+    private final ForkJoinPool pool;
+
+    public Speciation() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public Speciation(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param genomes the genomes to insert, in order
+     * @param species the species to insert them into
+     */
+    public void insert(List<Genome> genomes, List<Species> species) {
+        int existing = species.size();
+        Genome[] representatives = new Genome[existing];
+        for (int s = 0; s < existing; s++) {
+            representatives[s] = species.get(s).representative();
+        }
+        Genome[] candidates = genomes.toArray(new Genome[genomes.size()]);
+        int[] matches = new int[candidates.length];
+        if (candidates.length <= GRAIN) {
+            match(candidates, representatives, matches, 0, candidates.length);
+        } else {
+            pool.invoke(new Match(candidates, representatives, matches,
+                    0, candidates.length));
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            Genome g = candidates[i];
+            if (matches[i] != NO_MATCH) {
+                species.get(matches[i]).add(g);
+            } else {
+                insertNew(g, species, existing);
+            }
+        }
+    }
+
+    private static void insertNew(Genome g, List<Species> species, int from) {
+        for (int s = from; s < species.size(); s++) {
+            if (species.get(s).insert(g)) {
+                return;
+            }
+        }
+        species.add(new Species(g));
+    }
+
+    private static void match(Genome[] candidates, Genome[] representatives,
+            int[] matches, int from, int to) {
+        for (int i = from; i < to; i++) {
+            matches[i] = NO_MATCH;
+            for (int s = 0; s < representatives.length; s++) {
+                if (GeneticAlgorithm.sameSpecies(representatives[s],
+                        candidates[i])) {
+                    matches[i] = s;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static final class Match extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Genome[] candidates;
+
+        private final Genome[] representatives;
+
+        private final int[] matches;
+
+        private final int from;
+
+        private final int to;
+
+        private Match(Genome[] candidates, Genome[] representatives,
+                int[] matches, int from, int to) {
+            this.candidates = candidates;
+            this.representatives = representatives;
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                match(candidates, representatives, matches, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Match(candidates, representatives, matches,
+                        from, mid),
+                        new Match(candidates, representatives, matches,
+                                mid, to));
+            }
+        }
+    }
+
+}
@@ -1,14 +1,14 @@
 package hackthemarket;
 
 import java.io.Serializable;
-import static java.lang.Math.ceil;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class Species implements Comparable<Species>, Serializable {
 
-    private static final double TOURNAMENT_RATIO = 0.10;
+    private static final double CONTEST_RATIO = 0.10;
     private static final long serialVersionUID = 1425123L;
 
     private final List<Genome> genomes;
@@ -19,12 +19,55 @@ public class Species implements Comparable<Species>, Serializable {
 
     private int staleness;
 
+    private double sum;
+
+    private int evaluated;
+
+    private Genome best;
+
+    private Statistics statistics;
+
+    private final double ancestry;
+
+    /**
+     * The running sum of each member's fitness above the weakest member,
+     * in the order of the members.
+     */
+    private double[] cumulative;
+
     public Species(Genome g) {
+        this(g, Double.NaN);
+    }
+
+    /**
+     * @param g the first member
+     * @param ancestry the best fitness of the species this one descends
+     * from
+     */
+    public Species(Genome g, double ancestry) {
+        this(ancestry, Double.NaN, 0);
+        add(g);
+    }
+
+    /**
+     * Creates a species with no members, to be filled with {@link #add}.
+     */
+    Species(double ancestry, double topFitness, int staleness) {
+        this.ancestry = ancestry;
+        this.topFitness = topFitness;
+        this.staleness = staleness;
         genomes = Util.newList();
-        genomes.add(g);
-        topFitness = Double.NaN;
         averageFitness = Double.NaN;
-        staleness = 0;
+        sum = 0.0;
+        evaluated = 0;
+        best = null;
+    }
+
+    /**
+     * @return the best fitness this species has had when sorted
+     */
+    double top() {
+        return topFitness;
     }
 
     /**
@@ -41,6 +84,36 @@ public class Species implements Comparable<Species>, Serializable {
         return averageFitness;
     }
 
+    /**
+     * @return the fittest member evaluated so far, or {@code null}
+     */
+    public synchronized Genome best() {
+        return best;
+    }
+
+    /**
+     * @return the best fitness of the species this one descends from, or
+     * NaN for a new species
+     */
+    public double ancestry() {
+        return ancestry;
+    }
+
+    /**
+     * @return the number of members with a fitness
+     */
+    public synchronized int evaluated() {
+        return evaluated;
+    }
+
+    /**
+     * @param statistics receives every fitness assigned to a member from
+     * now on
+     */
+    void observe(Statistics statistics) {
+        this.statistics = statistics;
+    }
+
     /**
      * @return a copy of the species champion
      */
@@ -55,17 +128,163 @@ public class Species implements Comparable<Species>, Serializable {
         return genomes.iterator();
     }
 
-    private void computeAverageFitness() {
-        double sum = 0.0;
+    /**
+     * @return the number of members
+     */
+    public int size() {
+        return genomes.size();
+    }
+
+    /**
+     * @param i a rank, where zero is the fittest once sorted
+     * @return the member at that rank
+     */
+    public Genome get(int i) {
+        return genomes.get(i);
+    }
+
+    /**
+     * @return the genome that new members are compared against
+     */
+    public Genome representative() {
+        return genomes.get(0);
+    }
+
+    /**
+     * @param g a genome known to belong to this species
+     */
+    void add(Genome g) {
+        genomes.add(g);
+        g.species = this;
+        if (!Double.isNaN(g.getFitness())) {
+            record(g, Double.NaN, g.getFitness());
+        }
+    }
+
+    /**
+     * @param g a member to remove
+     */
+    synchronized void remove(Genome g) {
+        genomes.remove(g);
+        g.species = null;
+        record(g, g.getFitness(), Double.NaN);
+    }
+
+    /**
+     * @return the least fit evaluated member, or {@code null}
+     */
+    public synchronized Genome weakest() {
+        Genome weakest = null;
         for (Genome g : genomes) {
-            sum += g.getFitness();
+            if (!Double.isNaN(g.getFitness()) && (weakest == null
+                    || g.getFitness() < weakest.getFitness())) {
+                weakest = g;
+            }
+        }
+        return weakest;
+    }
+
+    /**
+     * Chooses the fitter of a few members drawn at random, without
+     * relying on the members being sorted or all evaluated.
+     *
+     * @return an evaluated member, or {@code null} if there is none
+     */
+    public synchronized Genome contest(SplittableRandom rng) {
+        int n = genomes.size();
+        int k = (int) Math.ceil(n * CONTEST_RATIO);
+        Genome winner = null;
+        for (int j = 0; j < k; j++) {
+            Genome g = genomes.get(rng.nextInt(n));
+            if (!Double.isNaN(g.getFitness()) && (winner == null
+                    || g.getFitness() > winner.getFitness())) {
+                winner = g;
+            }
+        }
+        return winner == null ? best : winner;
+    }
+
+    /**
+     * Updates the aggregates of this species when the fitness of a member
+     * is assigned.
+     *
+     * @param g the member
+     * @param previous its previous fitness, or NaN
+     * @param fitness its new fitness, or NaN
+     */
+    synchronized void record(Genome g, double previous, double fitness) {
+        if (!Double.isNaN(previous)) {
+            sum -= previous;
+            evaluated--;
+        }
+        if (!Double.isNaN(fitness)) {
+            sum += fitness;
+            evaluated++;
+        }
+        averageFitness = evaluated == 0 ? Double.NaN : sum / evaluated;
+        if (best == null || fitness > best.getFitness()) {
+            best = Double.isNaN(fitness) ? best : g;
+        } else if (g == best && !(fitness >= previous)) {
+            best = null;
+            for (Genome member : genomes) {
+                if (!Double.isNaN(member.getFitness()) && (best == null
+                        || member.getFitness() > best.getFitness())) {
+                    best = member;
+                }
+            }
+        }
+        if (statistics != null) {
+            statistics.record(previous, fitness);
         }
-        averageFitness = sum / genomes.size();
+    }
+
+    private void computeCumulativeFitness() {
+        int n = genomes.size();
+        if (cumulative == null || cumulative.length < n) {
+            cumulative = new double[n];
+        }
+        double weakest = genomes.get(n - 1).getFitness();
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += genomes.get(i).getFitness() - weakest;
+            cumulative[i] = sum;
+        }
+        if (!(sum > 0)) {
+            for (int i = 0; i < n; i++) {
+                cumulative[i] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * @return the total fitness of the members above the weakest member
+     */
+    double total() {
+        return cumulative[genomes.size() - 1];
+    }
+
+    /**
+     * @param x a point in {@code [0, total())}
+     * @return the index of the member whose share of the total contains x
+     */
+    int locate(double x) {
+        int lo = 0;
+        int hi = genomes.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] > x) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
     }
 
     public boolean insert(Genome g) {
-        if (GeneticAlgorithm.sameSpecies(genomes.get(0), g)) {
-            return genomes.add(g);
+        if (GeneticAlgorithm.sameSpecies(representative(), g)) {
+            add(g);
+            return true;
         } else {
             return false;
         }
@@ -80,32 +299,26 @@ public class Species implements Comparable<Species>, Serializable {
         } else {
             staleness++;
         }
-        computeAverageFitness();
+        computeCumulativeFitness();
     }
 
-    public void cull() {
-        List<Genome> weak = Util.newList();
+    /**
+     * Removes the members below a fraction of the average fitness. The
+     * members are sorted by {@link #hierarchy()}, so the weak members are
+     * the last ones.
+     */
+    public synchronized void cull() {
         double k = genomes.get(0).getFitness() < 0 ? 2 : 0.5;
-        for (Genome g : genomes) {
-            if (g.getFitness() < averageFitness * k) {
-                weak.add(g);
-            }
-        }
-        genomes.removeAll(weak);
-        computeAverageFitness();
-    }
-
-    public Genome select() {
-        int size = (int) ceil(genomes.size() * TOURNAMENT_RATIO);
-        List<Genome> tourn = Util.newList();
-        Bound B = new Bound(0, genomes.size() - 1);
-        Iterator<Integer> indices = B.randString(size, false);
-        while (indices.hasNext()) {
-            int index = indices.next();
-            tourn.add(genomes.get(index));
+        int n = genomes.size();
+        while (n > 0 && genomes.get(n - 1).getFitness() < averageFitness * k) {
+            Genome g = genomes.get(--n);
+            sum -= g.getFitness();
+            evaluated--;
+            g.species = null;
         }
-        Collections.sort(tourn);
-        return tourn.get(0);
+        genomes.subList(n, genomes.size()).clear();
+        averageFitness = evaluated == 0 ? Double.NaN : sum / evaluated;
+        computeCumulativeFitness();
     }
 
     @Override
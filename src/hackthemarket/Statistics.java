@@ -0,0 +1,127 @@
+package hackthemarket;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The distribution of the fitnesses assigned in a population, kept up to
+ * date as each fitness is assigned. The values are held in ascending order
+ * so that the count, mean and any percentile are read without sorting.
+ */
+public class Statistics implements Serializable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long serialVersionUID = 4215L;
+
+    private double[] values;
+
+    private int count;
+
+    private double sum;
+
+    public Statistics() {
+        values = new double[INITIAL_CAPACITY];
+        count = 0;
+        sum = 0.0;
+    }
+
+    /**
+     * Replaces an assigned fitness. Either value may be NaN, meaning that
+     * no fitness was or is assigned.
+     *
+     * @param previous the fitness being replaced
+     * @param fitness the fitness being assigned
+     */
+    public synchronized void record(double previous, double fitness) {
+        if (!Double.isNaN(previous)) {
+            int i = Arrays.binarySearch(values, 0, count, previous);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, count - i - 1);
+                count--;
+                sum -= previous;
+            }
+        }
+        if (!Double.isNaN(fitness)) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, 2 * count);
+            }
+            int i = Arrays.binarySearch(values, 0, count, fitness);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            System.arraycopy(values, i, values, i + 1, count - i);
+            values[i] = fitness;
+            count++;
+            sum += fitness;
+        }
+    }
+
+    /**
+     * Adds many assigned fitnesses at once, sorting them together rather
+     * than inserting them one by one.
+     *
+     * @param fitnesses the fitnesses, of which NaN values are skipped
+     * @param n the number of fitnesses to read
+     */
+    public synchronized void recordAll(double[] fitnesses, int n) {
+        if (count + n > values.length) {
+            values = Arrays.copyOf(values, Math.max(2 * values.length,
+                    count + n));
+        }
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(fitnesses[i])) {
+                values[count++] = fitnesses[i];
+                sum += fitnesses[i];
+            }
+        }
+        Arrays.sort(values, 0, count);
+    }
+
+    /**
+     * @return the number of assigned fitnesses
+     */
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @return the mean assigned fitness, or NaN if there is none
+     */
+    public synchronized double mean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * @return the highest assigned fitness, or NaN if there is none
+     */
+    public synchronized double max() {
+        return count == 0 ? Double.NaN : values[count - 1];
+    }
+
+    /**
+     * @return the lowest assigned fitness, or NaN if there is none
+     */
+    public synchronized double min() {
+        return count == 0 ? Double.NaN : values[0];
+    }
+
+    /**
+     * @param q a fraction in {@code [0, 1]}
+     * @return the nearest-rank percentile of the assigned fitnesses, or NaN
+     * if there is none
+     */
+    public synchronized double percentile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        int i = (int) Math.ceil(q * count) - 1;
+        return values[i < 0 ? 0 : i >= count ? count - 1 : i];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("n=%d mean=%.3f p50=%.3f p90=%.3f max=%.3f",
+                count, mean(), percentile(0.5), percentile(0.9), max());
+    }
+
+}
@@ -0,0 +1,226 @@
+package hackthemarket;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Evolves a population one genome at a time instead of by generation.
+ * Every worker always has a genome to evaluate: when a result arrives its
+ * fitness is assigned at once, and the weakest evaluated genome is replaced
+ * by a new child which is handed to the idle worker. A long episode thus
+ * only holds up its own worker.
+ * <p>
+ * The random stream of each child is keyed by the number of replacements
+ * the population has made, which is saved with it, so a run resumed from
+ * a checkpoint goes on with new streams rather than replaying old ones.
+ * Every time as many genomes have been replaced as the population holds,
+ * the genetic algorithm starts a new generation of its innovation history.
+ * Results are applied in the order they arrive, so a run is not
+ * reproducible from its seed alone.
+ */
+public class SteadyState {
+
+    /**
+     * The key of the stream used by a steady state run.
+     */
+    public static final long STEADY_STATE = 2;
+
+    /**
+     * The number of genomes kept in flight per worker, so that a worker
+     * finishing an evaluation finds the next one queued while the result
+     * is applied.
+     */
+    private static final int QUEUED = 2;
+
+    private final Population population;
+
+    private final Environment environment;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final TopologyCache topologies;
+
+    private long evaluations;
+
+    private long busy;
+
+    private long elapsed;
+
+    /**
+     * @param population the population to evolve, which is changed in
+     * place
+     * @param environment the environment the genomes are evaluated in
+     * @param threads the number of workers
+     */
+    public SteadyState(Population population, Environment environment,
+            int threads) {
+        this.population = population;
+        this.environment = environment;
+        this.threads = threads;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "steady-state-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        topologies = new TopologyCache();
+        evaluations = 0;
+        busy = 0;
+        elapsed = 0;
+    }
+
+    /**
+     * Evaluates genomes until a number of evaluations have completed. The
+     * unevaluated genomes of the population go first.
+     *
+     * @param budget the number of evaluations
+     */
+    public void run(long budget) {
+        CompletionService<Result> results
+                = new ExecutorCompletionService<>(executor);
+        Genome[] pending = population.getGenomeList().toArray(new Genome[0]);
+        long replacements = population.replacements();
+        int next = 0;
+        int inFlight = 0;
+        long completed = 0;
+        long start = System.nanoTime();
+        try {
+            while (inFlight > 0 || completed < budget) {
+                while (inFlight < QUEUED * threads
+                        && completed + inFlight < budget) {
+                    Genome g = null;
+                    SplittableRandom stream = null;
+                    while (next < pending.length && g == null) {
+                        Genome candidate = pending[next++];
+                        if (Double.isNaN(candidate.getFitness())) {
+                            g = candidate;
+                            stream = population.rng().stream(STEADY_STATE,
+                                    replacements, next);
+                        }
+                    }
+                    if (g == null) {
+                        stream = population.rng().stream(STEADY_STATE,
+                                population.replacements());
+                        g = breed(stream);
+                        if (g == null) {
+                            break;
+                        }
+                    }
+                    results.submit(new Evaluation(g, stream.split()));
+                    inFlight++;
+                }
+                if (inFlight == 0) {
+                    break;
+                }
+                Result result = results.take().get();
+                inFlight--;
+                completed++;
+                result.genome.setFitness(result.fitness);
+                busy += result.nanos;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evaluation interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Evaluation failed", ex.getCause());
+        } finally {
+            elapsed += System.nanoTime() - start;
+            evaluations += completed;
+        }
+    }
+
+    /**
+     * Replaces the weakest evaluated genome with a new child, and starts a
+     * new generation of the innovation history every time as many genomes
+     * have been replaced as the population holds.
+     *
+     * @return the child, or {@code null} if no genome is evaluated
+     */
+    private Genome breed(SplittableRandom rng) {
+        Genome weakest = population.weakest();
+        if (weakest == null) {
+            return null;
+        }
+        Genome child = population.offspring(rng);
+        population.replace(weakest, child);
+        if (population.replacements() % population.size() == 0) {
+            population.GA().advance(population.getGenomeList());
+        }
+        return child;
+    }
+
+    /**
+     * @return the population being evolved
+     */
+    public Population population() {
+        return population;
+    }
+
+    /**
+     * @return the number of completed evaluations
+     */
+    public long evaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return the fraction of the workers' time spent evaluating
+     */
+    public double utilization() {
+        return elapsed == 0 ? 0.0 : (double) busy / (elapsed * threads);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private final class Evaluation implements Callable<Result> {
+
+        private final Genome genome;
+
+        private final SplittableRandom stream;
+
+        private Evaluation(Genome genome, SplittableRandom stream) {
+            this.genome = genome;
+            this.stream = stream;
+        }
+
+        @Override
+        public Result call() {
+            long start = System.nanoTime();
+            NeuralNetwork brain = topologies.compile(genome);
+            double fitness = environment.evaluate(genome, brain, stream);
+            return new Result(genome, fitness, System.nanoTime() - start);
+        }
+
+    }
+
+    private static final class Result {
+
+        private final Genome genome;
+
+        private final double fitness;
+
+        private final long nanos;
+
+        private Result(Genome genome, double fitness, long nanos) {
+            this.genome = genome;
+            this.fitness = fitness;
+            this.nanos = nanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package hackthemarket;
+
+/**
+ * A rule for ending an episode before the time limit once its outcome is
+ * settled, which is checked after every step.
+ */
+public enum Termination {
+
+    /**
+     * The seeker has not moved for {@value #STALL_WINDOW} ms. A seeker
+     * spinning in place keeps its distance until the time limit.
+     */
+    Stalled {
+        @Override
+        public boolean cut(Episode episode, double elite) {
+            return episode.time() - episode.movedAt() >= STALL_WINDOW;
+        }
+    },
+    /**
+     * The seeker has not closed on the target for {@value #PROGRESS_WINDOW}
+     * ms.
+     */
+    NoProgress {
+        @Override
+        public boolean cut(Episode episode, double elite) {
+            return episode.time() - episode.closedAt() >= PROGRESS_WINDOW;
+        }
+    },
+    /**
+     * The seeker can no longer beat the elite of its species, even moving
+     * straight at the target at full speed.
+     */
+    FitnessCeiling {
+        @Override
+        public boolean cut(Episode episode, double elite) {
+            return episode.ceiling() < elite;
+        }
+    };
+
+    private static final int STALL_WINDOW = 2000;
+
+    private static final int PROGRESS_WINDOW = 5000;
+
+    /**
+     * @param episode a running episode
+     * @param elite the fitness to beat, or NaN if there is none
+     * @return whether to end the episode now
+     */
+    public abstract boolean cut(Episode episode, double elite);
+
+}
@@ -0,0 +1,103 @@
+package hackthemarket;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The termination rules applied to episodes and a count of the episodes
+ * each rule cut, with the simulated time the cuts saved. A policy may be
+ * shared by concurrent evaluations.
+ */
+public class TerminationPolicy {
+
+    /**
+     * @return a policy applying every rule
+     */
+    public static TerminationPolicy all() {
+        return new TerminationPolicy(EnumSet.allOf(Termination.class));
+    }
+
+    /**
+     * @return a policy that never ends an episode early
+     */
+    public static TerminationPolicy none() {
+        return new TerminationPolicy(EnumSet.noneOf(Termination.class));
+    }
+
+    private final Termination[] rules;
+
+    private final AtomicLongArray cuts;
+
+    private final AtomicLong episodes;
+
+    private final AtomicLong saved;
+
+    public TerminationPolicy(Set<Termination> rules) {
+        this.rules = rules.toArray(new Termination[rules.size()]);
+        cuts = new AtomicLongArray(Termination.values().length);
+        episodes = new AtomicLong();
+        saved = new AtomicLong();
+    }
+
+    /**
+     * Cuts the episode if any rule applies.
+     *
+     * @param episode a running episode
+     * @param elite the fitness to beat, or NaN if there is none
+     * @return whether the episode was cut
+     */
+    public boolean apply(Episode episode, double elite) {
+        for (Termination rule : rules) {
+            if (rule.cut(episode, elite)) {
+                episode.cut();
+                cuts.incrementAndGet(rule.ordinal());
+                saved.addAndGet(Math.max(0,
+                        Episode.TIME_LIMIT - episode.time()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts an episode that has ended, whether it was cut or not.
+     */
+    public void finish() {
+        episodes.incrementAndGet();
+    }
+
+    /**
+     * @return the number of episodes cut by a rule
+     */
+    public long cuts(Termination rule) {
+        return cuts.get(rule.ordinal());
+    }
+
+    /**
+     * @return the number of finished episodes
+     */
+    public long episodes() {
+        return episodes.get();
+    }
+
+    /**
+     * @return the simulated milliseconds not run because of the cuts
+     */
+    public long saved() {
+        return saved.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("episodes=").append(episodes());
+        for (Termination rule : Termination.values()) {
+            sb.append(' ').append(rule).append('=').append(cuts(rule));
+        }
+        sb.append(" saved=").append(saved() / 1000).append('s');
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,272 @@
+package hackthemarket;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The structure of a compiled neural network. Neurons are indexed densely
+ * and the connections leaving neuron {@code n} occupy {@code offsets[n]}
+ * to {@code offsets[n + 1]} of the {@code targets} array. The weights are
+ * kept apart so that networks with the same structure can share it.
+ * <p>
+ * Acyclic genomes are numbered in topological order so that they can be
+ * evaluated in a single pass per input.
+ */
+public class Topology {
+
+    /**
+     * Orders a graph with Kahn's algorithm.
+     *
+     * @param N the number of vertices
+     * @param sources the source vertex of each edge
+     * @param sinks the sink vertex of each edge
+     * @return the position of each vertex in a topological order, or
+     * {@code null} if the graph contains a cycle
+     */
+    private static int[] topologicalRank(int N, int[] sources, int[] sinks) {
+        int[] degree = new int[N];
+        int[] offsets = new int[N + 1];
+        for (int e = 0; e < sources.length; e++) {
+            degree[sinks[e]]++;
+            offsets[sources[e] + 1]++;
+        }
+        for (int n = 0; n < N; n++) {
+            offsets[n + 1] += offsets[n];
+        }
+        int[] fill = Arrays.copyOf(offsets, N);
+        int[] adjacent = new int[sources.length];
+        for (int e = 0; e < sources.length; e++) {
+            adjacent[fill[sources[e]]++] = sinks[e];
+        }
+        int[] order = new int[N];
+        int head = 0;
+        int tail = 0;
+        for (int n = 0; n < N; n++) {
+            if (degree[n] == 0) {
+                order[tail++] = n;
+            }
+        }
+        while (head < tail) {
+            int n = order[head++];
+            for (int e = offsets[n]; e < offsets[n + 1]; e++) {
+                if (--degree[adjacent[e]] == 0) {
+                    order[tail++] = adjacent[e];
+                }
+            }
+        }
+        if (tail < N) {
+            return null;
+        }
+        int[] rank = new int[N];
+        for (int i = 0; i < N; i++) {
+            rank[order[i]] = i;
+        }
+        return rank;
+    }
+
+    final boolean feedForward;
+
+    final int[] keys;
+
+    final double[] thresholds;
+
+    final int[] inputs;
+
+    final int[] outputs;
+
+    final int[] biases;
+
+    final int[] offsets;
+
+    final int[] targets;
+
+    /**
+     * The connection slot of each enabled link, in genome order.
+     */
+    final int[] slots;
+
+    public Topology(Genome genome) {
+        List<Node> nodes = genome.nodes();
+        int numLinks = genome.numLinks();
+
+        // Index every neuron, including hidden neurons only named by links
+        Map<Integer, Integer> index = Util.newMap();
+        List<Node> neurons = Util.newList();
+        int numInputs = 0;
+        int numOutputs = 0;
+        int numBiases = 0;
+        for (Node node : nodes) {
+            index.put(node.key(), neurons.size());
+            neurons.add(node);
+            Allele allele = node.allele();
+            if (allele.equals(Allele.Input)) {
+                numInputs++;
+            } else if (allele.equals(Allele.Output)) {
+                numOutputs++;
+            } else if (allele.equals(Allele.Bias)) {
+                numBiases++;
+            }
+        }
+        int numEdges = 0;
+        for (int i = 0; i < numLinks; i++) {
+            if (genome.isEnabled(i)) {
+                numEdges++;
+                int in = genome.in(i);
+                int out = genome.out(i);
+                if (!index.containsKey(in)) {
+                    index.put(in, neurons.size());
+                    neurons.add(new Node(in, Allele.Hidden));
+                }
+                if (!index.containsKey(out)) {
+                    index.put(out, neurons.size());
+                    neurons.add(new Node(out, Allele.Hidden));
+                }
+            }
+        }
+
+        // Gather the enabled links as edges between neuron indices
+        int N = neurons.size();
+        int[] sources = new int[numEdges];
+        int[] sinks = new int[numEdges];
+        numEdges = 0;
+        for (int i = 0; i < numLinks; i++) {
+            if (genome.isEnabled(i)) {
+                sources[numEdges] = index.get(genome.in(i));
+                sinks[numEdges] = index.get(genome.out(i));
+                numEdges++;
+            }
+        }
+        // Number the neurons in topological order if there are no cycles
+        int[] rank = topologicalRank(N, sources, sinks);
+        feedForward = rank != null;
+        if (!feedForward) {
+            rank = new int[N];
+            for (int n = 0; n < N; n++) {
+                rank[n] = n;
+            }
+        }
+
+        keys = new int[N];
+        thresholds = new double[N];
+        inputs = new int[numInputs];
+        outputs = new int[numOutputs];
+        biases = new int[numBiases];
+        numInputs = 0;
+        numOutputs = 0;
+        numBiases = 0;
+        for (int i = 0; i < N; i++) {
+            Node node = neurons.get(i);
+            int n = rank[i];
+            keys[n] = node.key();
+            thresholds[n] = node.threshold();
+            Allele allele = node.allele();
+            if (allele.equals(Allele.Input)) {
+                inputs[numInputs++] = n;
+            } else if (allele.equals(Allele.Output)) {
+                outputs[numOutputs++] = n;
+            } else if (allele.equals(Allele.Bias)) {
+                biases[numBiases++] = n;
+            }
+        }
+
+        // Lay the edges out by source neuron
+        offsets = new int[N + 1];
+        targets = new int[numEdges];
+        slots = new int[numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            offsets[rank[sources[e]] + 1]++;
+        }
+        for (int n = 0; n < N; n++) {
+            offsets[n + 1] += offsets[n];
+        }
+        int[] fill = Arrays.copyOf(offsets, N);
+        for (int e = 0; e < numEdges; e++) {
+            int slot = fill[rank[sources[e]]]++;
+            targets[slot] = rank[sinks[e]];
+            slots[e] = slot;
+        }
+    }
+
+    /**
+     * @return the number of neurons
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return the number of connections
+     */
+    public int numEdges() {
+        return targets.length;
+    }
+
+    /**
+     * @return the number of input neurons
+     */
+    public int numInputs() {
+        return inputs.length;
+    }
+
+    /**
+     * @return the number of output neurons
+     */
+    public int numOutputs() {
+        return outputs.length;
+    }
+
+    /**
+     * @return whether the network is evaluated in a single pass
+     */
+    public boolean isFeedForward() {
+        return feedForward;
+    }
+
+    /**
+     * Copies the weights of the enabled links of a genome into their
+     * connection slots.
+     *
+     * @param genome a genome with this structure
+     * @param weights receives the connection weights
+     */
+    public void weigh(Genome genome, double[] weights) {
+        int k = 0;
+        for (int i = 0; i < genome.numLinks(); i++) {
+            if (genome.isEnabled(i)) {
+                weights[slots[k++]] = genome.weight(i);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj instanceof Topology) {
+            Topology t = (Topology) obj;
+            return feedForward == t.feedForward
+                    && Arrays.equals(offsets, t.offsets)
+                    && Arrays.equals(targets, t.targets)
+                    && Arrays.equals(inputs, t.inputs)
+                    && Arrays.equals(outputs, t.outputs)
+                    && Arrays.equals(biases, t.biases)
+                    && Arrays.equals(thresholds, t.thresholds);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @return a hash code
+     */
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 41 * hash + Arrays.hashCode(offsets);
+        hash = 41 * hash + Arrays.hashCode(targets);
+        hash = 41 * hash + Arrays.hashCode(outputs);
+        return hash;
+    }
+
+}
@@ -0,0 +1,151 @@
+package hackthemarket;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of compiled topologies, evicting the least recently used.
+ * Most offspring keep the exact structure of a parent and differ only in
+ * their weights, so compiling them costs a lookup and a copy of the
+ * weights.
+ */
+public class TopologyCache {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<Key, Topology> topologies;
+
+    private long hits;
+
+    private long misses;
+
+    public TopologyCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TopologyCache(final int capacity) {
+        topologies = new LinkedHashMap<Key, Topology>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Topology> e) {
+                return size() > capacity;
+            }
+        };
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @param genome a genome
+     * @return the compiled structure of the genome
+     */
+    public synchronized Topology topology(Genome genome) {
+        Key key = new Key(genome);
+        Topology topology = topologies.get(key);
+        if (topology == null) {
+            misses++;
+            topology = new Topology(genome);
+            topologies.put(key, topology);
+        } else {
+            hits++;
+        }
+        return topology;
+    }
+
+    /**
+     * @param genome a genome
+     * @return a network for the genome sharing a cached structure
+     */
+    public NeuralNetwork compile(Genome genome) {
+        return new NeuralNetwork(topology(genome), genome);
+    }
+
+    /**
+     * @return the number of compilations served from the cache
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of compilations that built a new structure
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        topologies.clear();
+    }
+
+    /**
+     * The structure of a genome: its nodes and its enabled links in genome
+     * order, which is everything a {@link Topology} is built from.
+     */
+    private static final class Key {
+
+        private final int[] nodes;
+
+        private final long[] thresholds;
+
+        private final int[] links;
+
+        private final int hash;
+
+        private Key(Genome genome) {
+            List<Node> nodeList = genome.nodes();
+            nodes = new int[2 * nodeList.size()];
+            thresholds = new long[nodeList.size()];
+            int i = 0;
+            for (Node node : nodeList) {
+                nodes[2 * i] = node.key();
+                nodes[2 * i + 1] = node.allele().ordinal();
+                thresholds[i] = Double.doubleToLongBits(node.threshold());
+                i++;
+            }
+            int enabled = 0;
+            for (int j = 0; j < genome.numLinks(); j++) {
+                if (genome.isEnabled(j)) {
+                    enabled++;
+                }
+            }
+            links = new int[2 * enabled];
+            i = 0;
+            for (int j = 0; j < genome.numLinks(); j++) {
+                if (genome.isEnabled(j)) {
+                    links[i++] = genome.in(j);
+                    links[i++] = genome.out(j);
+                }
+            }
+            int h = 17;
+            h = 31 * h + Arrays.hashCode(nodes);
+            h = 31 * h + Arrays.hashCode(thresholds);
+            h = 31 * h + Arrays.hashCode(links);
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key key = (Key) obj;
+                return hash == key.hash
+                        && Arrays.equals(links, key.links)
+                        && Arrays.equals(nodes, key.nodes)
+                        && Arrays.equals(thresholds, key.thresholds);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,242 @@
+package hackthemarket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.SplittableRandom;
+
+/**
+ * Evolves the chase population headless, for machines without a display.
+ * <p>
+ * Usage: {@code Trainer [threads] [generations] [islands]}
+ * <p>
+ * With the {@code hackthemarket.market} system property set to a CSV file
+ * of daily bars, the population instead learns to trade those bars in a
+ * {@link Backtest}, and is saved apart from the chase population. The
+ * {@code hackthemarket.indicators} property names the features it is
+ * shown, as in {@code ret(0),sma(20),rsi(14)}.
+ * <p>
+ * With more than one island, the threads are shared among independent
+ * populations that exchange their champions every few generations. With
+ * the {@code hackthemarket.steady} system property set, the population
+ * instead evolves one genome at a time, a generation standing for as many
+ * evaluations as there are genomes, and the progress is reported as the
+ * number of genomes replaced.
+ */
+public class Trainer {
+
+    private static final int POPULATION_SIZE = 50;
+
+    private static final int SAVE_INTERVAL = 5;
+
+    private static final int CHECKPOINTS_KEPT = 3;
+
+    private static final int MIGRATION_INTERVAL = 5;
+
+    private static final String STEADY_PROPERTY = "hackthemarket.steady";
+
+    private static final String MARKET_PROPERTY = "hackthemarket.market";
+
+    private static final String INDICATORS_PROPERTY
+            = "hackthemarket.indicators";
+
+    public static void main(String[] args) throws IOException {
+        Backtest market = null;
+        String bars = System.getProperty(MARKET_PROPERTY);
+        if (bars != null) {
+            String names = System.getProperty(INDICATORS_PROPERTY);
+            FeatureMatrix features = FeatureMatrix.load(
+                    new File(bars).toPath(), names == null
+                            ? Indicator.defaults()
+                            : Indicator.parseAll(names));
+            print("Market: " + features.data() + " " + features);
+            market = new Backtest(features);
+        }
+        int threads = args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        int generations = args.length > 1 ? Integer.parseInt(args[1])
+                : Integer.MAX_VALUE;
+        int islands = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        Trainer trainer = new Trainer(market);
+        if (islands > 1) {
+            trainer.archipelago(threads, generations, islands);
+        } else {
+            trainer.train(threads, generations);
+        }
+    }
+
+    @SuppressWarnings("UseOfSystemOutOrSystemErr")
+    private static void print(Object s) {
+        System.out.println(s);
+    }
+
+    private final File populationFile;
+
+    private final File hallOfFame;
+
+    /**
+     * The backtest trained in, or {@code null} to train in the chase.
+     */
+    private final Backtest market;
+
+    /**
+     * @param market the backtest to train in, or {@code null} to train in
+     * the chase
+     */
+    public Trainer(Backtest market) {
+        this.market = market;
+        populationFile = new File(market != null ? "market.pop"
+                : "population.pop");
+        hallOfFame = new File(market != null ? "market-hall" : "hall");
+    }
+
+    public void train(int threads, int generations) throws IOException {
+        Population p = resume();
+        boolean resumed = p != null;
+        if (!resumed) {
+            p = create();
+        }
+        if (Boolean.getBoolean(STEADY_PROPERTY)) {
+            steadyState(p, threads, generations);
+            return;
+        }
+        Environment environment = environment();
+        Evaluator evaluator = new Evaluator(environment, threads);
+        CheckpointService checkpoints = checkpoints(SAVE_INTERVAL);
+        try (HallOfFame hall = new HallOfFame(hallOfFame.toPath())) {
+            if (resumed) {
+                hall.rewind(p.generation());
+            } else if (hall.size() > 0) {
+                throw new IOException(hallOfFame + " holds the champions"
+                        + " of another run, so move it away to start anew");
+            }
+            for (int i = 1; i <= generations; i++) {
+                evaluator.evaluate(p);
+                print("Generation " + i + ": " + p.champion().getFitness()
+                        + " (" + p.statistics() + ")");
+                if (market != null) {
+                    print("  " + market.run(new NeuralNetwork(p.champion())));
+                } else {
+                    print("  " + ((Chase) environment).termination());
+                }
+                hall.append(p.generation(), p.champion());
+                p = p.evolve();
+                if (checkpoints.offer(p)) {
+                    print("  checkpoint " + checkpoints);
+                }
+            }
+        } finally {
+            evaluator.shutdown();
+            close(checkpoints);
+        }
+    }
+
+    private void steadyState(Population p, int threads,
+            int generations) throws IOException {
+        SteadyState steady = new SteadyState(p, environment(), threads);
+        CheckpointService checkpoints = checkpoints(0);
+        try {
+            for (int i = 1; i <= generations; i++) {
+                steady.run(p.size());
+                print("Replacements " + p.replacements() + ": "
+                        + p.champion().getFitness()
+                        + " (" + p.statistics() + String.format(
+                                ", utilization=%.2f)", steady.utilization()));
+                if (i % SAVE_INTERVAL == 0) {
+                    checkpoints.save(p);
+                }
+            }
+        } finally {
+            steady.shutdown();
+            close(checkpoints);
+        }
+    }
+
+    private void archipelago(int threads, int generations, int islands) {
+        Rng rng = Rng.fromProperty();
+        print("Seed: " + rng.seed());
+        Population[] populations = new Population[islands];
+        for (int i = 0; i < islands; i++) {
+            Rng island = new Rng(rng.stream(i).nextLong());
+            Bound W = new Bound(-2.0, 2.0);
+            GeneticAlgorithm GA = new GeneticAlgorithm(W);
+            Genome seed = seed(GA, W, island.stream());
+            populations[i] = new Population(POPULATION_SIZE, seed, GA, island);
+        }
+        Archipelago archipelago = new Archipelago(populations, environment(),
+                Math.max(1, threads / islands), new RingMigration(islands),
+                MIGRATION_INTERVAL);
+        try {
+            for (int i = 0; i < generations; i += MIGRATION_INTERVAL) {
+                int n = Math.min(MIGRATION_INTERVAL, generations - i);
+                archipelago.evolve(n);
+                print("Generation " + (i + n) + ": "
+                        + archipelago.champion().getFitness());
+            }
+        } finally {
+            archipelago.shutdown();
+        }
+    }
+
+    /**
+     * Resumes the saved population. A checkpoint that cannot be read is
+     * reported rather than replaced.
+     *
+     * @return the population, or {@code null} if there is none to resume
+     */
+    private Population resume() throws IOException {
+        try {
+            Population p = Checkpoint.read(populationFile.toPath());
+            int inputs = new Topology(p.getGenomeList().get(0)).numInputs();
+            if (market == null || inputs == market.numInputs()) {
+                return p;
+            }
+            print("Ignoring " + populationFile + ", which has " + inputs
+                    + " inputs instead of " + market.numInputs());
+        } catch (NoSuchFileException ex) {
+            // There is no population to resume, so start a new one
+        } catch (IOException ex) {
+            throw new IOException("Cannot resume " + populationFile + ": "
+                    + ex.getMessage(), ex);
+        }
+        return null;
+    }
+
+    private Population create() {
+        Rng rng = Rng.fromProperty();
+        print("Seed: " + rng.seed());
+        Bound W = new Bound(-2.0, 2.0);
+        GeneticAlgorithm GA = new GeneticAlgorithm(W);
+        Genome seed = seed(GA, W, rng.stream());
+        return new Population(POPULATION_SIZE, seed, GA, rng);
+    }
+
+    private Environment environment() {
+        return market != null ? market : new Chase();
+    }
+
+    private Genome seed(GeneticAlgorithm GA, Bound W, SplittableRandom rng) {
+        return market != null
+                ? Backtest.seed(GA, W, rng, market.numInputs() - 1)
+                : Chase.seed(GA, W, rng);
+    }
+
+    private CheckpointService checkpoints(int generations) {
+        return new CheckpointService(populationFile.toPath(), generations,
+                0, CHECKPOINTS_KEPT, true);
+    }
+
+    private static void close(CheckpointService checkpoints) {
+        try {
+            checkpoints.close();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (checkpoints.failures() > 0) {
+            print(checkpoints.failures() + " of " + (checkpoints.writes()
+                    + checkpoints.failures()) + " checkpoints failed, the"
+                    + " last with " + checkpoints.lastError());
+        }
+    }
+
+}
@@ -5,8 +5,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
 
 /**
  * A utility class.
@@ -27,13 +27,14 @@ public class Util {
         return new HashMap<>();
     }
 
-    public static double rand(final double lower, final double upper) {
+    public static double rand(final double lower, final double upper,
+            final SplittableRandom rng) {
         final double range = upper - lower;
-        return range * Math.random() + lower;
+        return range * rng.nextDouble() + lower;
     }
 
-    public static int randInt(final int lower, final int upper) {
-        Random rng = new Random();
+    public static int randInt(final int lower, final int upper,
+            final SplittableRandom rng) {
         return rng.nextInt((upper - lower) + 1) + lower;
     }
 
@@ -0,0 +1,465 @@
+package hackthemarket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Validates evolution out of sample on rolling folds of a series of bars.
+ * Each fold evolves a new population on a window of training bars and
+ * then trades the bars that follow with the champion, which it has never
+ * seen. The next fold rolls both windows on by the length of a test, so
+ * the tests cover the series after the first training window end to end.
+ * <pre>
+ * fold 0   [ train        ][ test ]
+ * fold 1           [ train        ][ test ]
+ * fold 2                   [ train        ][ test ]
+ * </pre>
+ * Folds evolve concurrently on a fixed number of threads, each fold on one
+ * thread, so at most that many populations are held at once. Every fold
+ * backtests over the same {@link FeatureMatrix}, so the features exist
+ * once however many folds there are, and trades it with its whole
+ * population at once through a {@link NetworkBatch}.
+ * <p>
+ * Each finished fold is appended to a journal and forced to disk, with the
+ * seed of the sweep and the shape of its folds in the first line. A sweep
+ * started again with the same journal skips the folds it lists and uses
+ * the seed it records, so a long sweep survives restarts and gives the
+ * same folds as if it had run once. A fold that was interrupted starts
+ * over.
+ * <p>
+ * Usage: {@code WalkForward csv [threads] [generations] [train] [test]}
+ */
+public class WalkForward {
+
+    /**
+     * The key of the streams the folds are seeded from.
+     */
+    public static final long WALK_FORWARD = 3;
+
+    public static final int DEFAULT_TRAIN = 200;
+
+    public static final int DEFAULT_TEST = 50;
+
+    public static final int DEFAULT_GENERATIONS = 30;
+
+    private static final int POPULATION_SIZE = 50;
+
+    private static final String JOURNAL_VERSION = "walk-forward 1";
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        Path csv = Paths.get(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        int generations = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_GENERATIONS;
+        int train = args.length > 3 ? Integer.parseInt(args[3])
+                : DEFAULT_TRAIN;
+        int test = args.length > 4 ? Integer.parseInt(args[4])
+                : DEFAULT_TEST;
+        FeatureMatrix features = FeatureMatrix.load(csv,
+                Indicator.defaults());
+        WalkForward sweep = new WalkForward(features, train, test,
+                generations, Backtest.DEFAULT_COST, Rng.fromProperty(),
+                csv.resolveSibling(csv.getFileName() + ".walk"));
+        print("Walk forward: " + sweep.folds() + " folds of " + features);
+        List<Fold> folds = sweep.run(threads);
+        double growth = 0.0;
+        for (Fold fold : folds) {
+            print(fold);
+            growth += fold.outOfSample().growth();
+        }
+        print(String.format("Out of sample: return=%.2f%% over %d folds",
+                100 * Math.expm1(growth), folds.size()));
+    }
+
+    @SuppressWarnings("UseOfSystemOutOrSystemErr")
+    private static void print(Object s) {
+        System.out.println(s);
+    }
+
+    private final FeatureMatrix features;
+
+    private final int train;
+
+    private final int test;
+
+    private final int generations;
+
+    private final double cost;
+
+    private final Path journal;
+
+    private Rng rng;
+
+    /**
+     * @param features the features of the series, shared by every fold
+     * @param train the number of bars each fold trains on
+     * @param test the number of bars each fold is tested on
+     * @param generations the number of generations each fold evolves
+     * @param cost the cost of trading, as a fraction of the amount traded
+     * @param rng the randomness of the sweep, unless the journal has one
+     * @param journal the file the finished folds are recorded in
+     */
+    public WalkForward(FeatureMatrix features, int train, int test,
+            int generations, double cost, Rng rng, Path journal) {
+        if (train < 2 || test < 2) {
+            throw new IllegalArgumentException("Folds of " + train
+                    + " training bars and " + test + " test bars");
+        }
+        this.features = features;
+        this.train = train;
+        this.test = test;
+        this.generations = generations;
+        this.cost = cost;
+        this.rng = rng;
+        this.journal = journal;
+    }
+
+    /**
+     * @return the number of folds that fit in the series
+     */
+    public int folds() {
+        int bars = features.rows() - features.start() - train;
+        return Math.max(0, bars / test);
+    }
+
+    /**
+     * @return the randomness of the sweep
+     */
+    public synchronized Rng rng() {
+        return rng;
+    }
+
+    /**
+     * Runs every fold not in the journal, recording each as it finishes.
+     *
+     * @param threads the number of folds evolved at once
+     * @return every fold of the sweep, in order
+     */
+    public List<Fold> run(int threads)
+            throws IOException, InterruptedException {
+        final Map<Integer, Fold> done = readJournal();
+        List<Fold> folds = Util.newList();
+        folds.addAll(done.values());
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "walk-forward-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<Fold> tasks = new ExecutorCompletionService<>(executor);
+        try (FileChannel channel = FileChannel.open(journal,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            if (channel.size() == 0) {
+                append(channel, header(rng().seed()));
+            }
+            int pending = 0;
+            for (int i = 0; i < folds(); i++) {
+                if (!done.containsKey(i)) {
+                    final int fold = i;
+                    tasks.submit(new Callable<Fold>() {
+                        @Override
+                        public Fold call() {
+                            return evolve(fold);
+                        }
+                    });
+                    pending++;
+                }
+            }
+            for (; pending > 0; pending--) {
+                Fold fold = tasks.take().get();
+                append(channel, fold.encode());
+                folds.add(fold);
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Fold failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        Collections.sort(folds, new Comparator<Fold>() {
+            @Override
+            public int compare(Fold a, Fold b) {
+                return Integer.compare(a.index, b.index);
+            }
+        });
+        return folds;
+    }
+
+    /**
+     * Evolves a population on the training bars of a fold and tests the
+     * fittest genome of any generation on the bars after them.
+     */
+    private Fold evolve(int fold) {
+        int trainFrom = features.start() + fold * test;
+        int testFrom = trainFrom + train;
+        int testTo = testFrom + test;
+        Backtest training = new Backtest(features, trainFrom, testFrom, cost);
+        Backtest testing = new Backtest(features, testFrom, testTo, cost);
+
+        long seed = rng().stream(WALK_FORWARD, fold).nextLong();
+        Rng foldRng = new Rng(seed);
+        Bound W = new Bound(-2.0, 2.0);
+        GeneticAlgorithm GA = new GeneticAlgorithm(W);
+        Genome genome = Backtest.seed(GA, W, foldRng.stream(),
+                features.columns());
+        Population p = new Population(POPULATION_SIZE, genome, GA, foldRng);
+        TopologyCache topologies = new TopologyCache();
+        Genome champion = null;
+        for (int i = 1; i <= generations; i++) {
+            // The whole population trades the bars at once on this thread
+            List<Genome> genomes = p.getGenomeList();
+            List<NeuralNetwork> brains = Util.newList();
+            for (Genome g : genomes) {
+                brains.add(topologies.compile(g));
+            }
+            Backtest.Performance[] results = training.run(brains);
+            for (int j = 0; j < results.length; j++) {
+                genomes.get(j).setFitness(results[j].fitness());
+            }
+            Genome best = p.champion();
+            if (champion == null
+                    || best.getFitness() > champion.getFitness()) {
+                champion = best.copy();
+                champion.setFitness(best.getFitness());
+            }
+            if (i < generations) {
+                p = p.evolve();
+            }
+        }
+        Backtest.Performance inSample = training.run(
+                new NeuralNetwork(champion));
+        Backtest.Performance outOfSample = testing.run(
+                new NeuralNetwork(champion));
+        return new Fold(fold, trainFrom, testFrom, testTo, seed, champion,
+                inSample, outOfSample);
+    }
+
+    private String header(long seed) {
+        return JOURNAL_VERSION + " " + shape() + " seed=" + seed;
+    }
+
+    /**
+     * @return what makes two sweeps give the same folds, apart from the
+     * seed
+     */
+    private String shape() {
+        return "rows=" + features.rows() + " start=" + features.start()
+                + " train=" + train + " test=" + test
+                + " generations=" + generations + " population="
+                + POPULATION_SIZE + " cost=" + cost + " features="
+                + Indicator.names(features.indicators());
+    }
+
+    /**
+     * Reads the finished folds, adopting the seed of the journal and
+     * cutting off a line left incomplete by a crash.
+     *
+     * @return the finished folds by index
+     */
+    private Map<Integer, Fold> readJournal() throws IOException {
+        Map<Integer, Fold> done = Util.newMap();
+        if (!Files.exists(journal)) {
+            return done;
+        }
+        byte[] bytes = Files.readAllBytes(journal);
+        int complete = bytes.length;
+        while (complete > 0 && bytes[complete - 1] != '\n') {
+            complete--;
+        }
+        if (complete < bytes.length) {
+            try (FileChannel channel = FileChannel.open(journal,
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+        String[] lines = new String(bytes, 0, complete,
+                StandardCharsets.UTF_8).split("\n");
+        if (lines[0].isEmpty()) {
+            return done;
+        }
+        String header = lines[0];
+        int at = header.lastIndexOf(" seed=");
+        if (!header.startsWith(JOURNAL_VERSION + " ") || at < 0
+                || !header.substring(JOURNAL_VERSION.length() + 1, at)
+                        .equals(shape())) {
+            throw new IOException(journal + " records a different sweep: "
+                    + header);
+        }
+        long seed = Long.parseLong(header.substring(at + " seed=".length()));
+        synchronized (this) {
+            rng = new Rng(seed);
+        }
+        for (int i = 1; i < lines.length; i++) {
+            Fold fold = Fold.decode(lines[i]);
+            done.put(fold.index, fold);
+        }
+        return done;
+    }
+
+    private static void append(FileChannel channel, String line)
+            throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(
+                (line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * A finished fold and the performance of its champion.
+     */
+    public static final class Fold {
+
+        private final int index;
+
+        private final int trainFrom;
+
+        private final int testFrom;
+
+        private final int testTo;
+
+        private final long seed;
+
+        private final Genome champion;
+
+        private final Backtest.Performance inSample;
+
+        private final Backtest.Performance outOfSample;
+
+        private Fold(int index, int trainFrom, int testFrom, int testTo,
+                long seed, Genome champion, Backtest.Performance inSample,
+                Backtest.Performance outOfSample) {
+            this.index = index;
+            this.trainFrom = trainFrom;
+            this.testFrom = testFrom;
+            this.testTo = testTo;
+            this.seed = seed;
+            this.champion = champion;
+            this.inSample = inSample;
+            this.outOfSample = outOfSample;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * @return the index of the first training bar
+         */
+        public int trainFrom() {
+            return trainFrom;
+        }
+
+        /**
+         * @return the index of the first test bar
+         */
+        public int testFrom() {
+            return testFrom;
+        }
+
+        /**
+         * @return the index after the last test bar
+         */
+        public int testTo() {
+            return testTo;
+        }
+
+        /**
+         * @return the seed the population of the fold was evolved from
+         */
+        public long seed() {
+            return seed;
+        }
+
+        /**
+         * @return the fittest genome on the training bars
+         */
+        public Genome champion() {
+            return champion;
+        }
+
+        /**
+         * @return the performance of the champion on the training bars
+         */
+        public Backtest.Performance inSample() {
+            return inSample;
+        }
+
+        /**
+         * @return the performance of the champion on the test bars
+         */
+        public Backtest.Performance outOfSample() {
+            return outOfSample;
+        }
+
+        private String encode() throws IOException {
+            return "fold " + index + " " + trainFrom + " " + testFrom + " "
+                    + testTo + " " + seed + " " + encode(inSample) + " "
+                    + encode(outOfSample) + " " + champion.getFitness() + " "
+                    + Base64.getEncoder().encodeToString(
+                            Checkpoint.encode(champion));
+        }
+
+        private static String encode(Backtest.Performance p) {
+            return p.growth() + " " + p.drawdown() + " " + p.turnover()
+                    + " " + p.trades() + " " + p.bars();
+        }
+
+        private static Fold decode(String line) throws IOException {
+            String[] s = line.split(" ");
+            if (s.length != 18 || !s[0].equals("fold")) {
+                throw new IOException("Malformed fold: " + line);
+            }
+            Genome champion = Checkpoint.decode(ByteBuffer.wrap(
+                    Base64.getDecoder().decode(s[17])));
+            champion.setFitness(Double.parseDouble(s[16]));
+            return new Fold(Integer.parseInt(s[1]), Integer.parseInt(s[2]),
+                    Integer.parseInt(s[3]), Integer.parseInt(s[4]),
+                    Long.parseLong(s[5]), champion, decode(s, 6),
+                    decode(s, 11));
+        }
+
+        private static Backtest.Performance decode(String[] s, int at) {
+            return new Backtest.Performance(Double.parseDouble(s[at]),
+                    Double.parseDouble(s[at + 1]),
+                    Double.parseDouble(s[at + 2]), Integer.parseInt(s[at + 3]),
+                    Integer.parseInt(s[at + 4]));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Fold %d: train %d-%d, test %d-%d%n"
+                    + "  in sample:     %s%n  out of sample: %s", index,
+                    trainFrom, testFrom, testFrom, testTo, inSample,
+                    outOfSample);
+        }
+
+    }
+
+}
@@ -0,0 +1,180 @@
+package hackthemarket;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointTest {
+
+    private Path directory;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("checkpoint");
+        file = directory.resolve("population.pop");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.delete(directory);
+    }
+
+    /**
+     * @return an evaluated population in its second generation, with
+     * genomes of different structures
+     */
+    private static Population population() {
+        List<Node> nodes = Util.newList();
+        nodes.add(new Node(0, Allele.Input));
+        nodes.add(new Node(1, Allele.Input));
+        nodes.add(new Node(2, Allele.Output));
+        nodes.add(new Node(3, Allele.Bias));
+        List<Link> links = Util.newList();
+        links.add(new Link(0, 2, 0.5));
+        links.add(new Link(1, 2, -0.5));
+        Bound W = new Bound(-2.0, 2.0);
+        GeneticAlgorithm GA = new GeneticAlgorithm(W);
+        GA.innovate(links);
+        Population p = new Population(30, new Genome(nodes, links), GA,
+                new Rng(18));
+        SplittableRandom rng = new SplittableRandom(18);
+        for (Genome g : p.getGenomeList()) {
+            GA.nodeMutate(g, rng);
+            GA.linkMutate(g, rng);
+            GA.innovate(g);
+            g.setFitness(rng.nextDouble());
+        }
+        p = p.evolve();
+        for (Genome g : p.getGenomeList()) {
+            g.setFitness(rng.nextDouble());
+        }
+        return p;
+    }
+
+    private static void assertEqualPopulations(Population expected,
+            Population actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.generation(), actual.generation());
+        assertEquals(expected.replacements(), actual.replacements());
+        assertEquals(expected.rng().seed(), actual.rng().seed());
+        GeneticAlgorithm GA = expected.GA();
+        assertEquals(GA.weights().lower, actual.GA().weights().lower, 0.0);
+        assertEquals(GA.weights().upper, actual.GA().weights().upper, 0.0);
+        assertEquals(GA.selection(), actual.GA().selection());
+        InnovationRegistry history = GA.history();
+        assertEquals(history.generation(),
+                actual.GA().history().generation());
+        assertEquals(history.top(), actual.GA().history().top());
+        assertEquals(history.size(), actual.GA().history().size());
+        assertEquals(expected.species().size(), actual.species().size());
+        for (int s = 0; s < expected.species().size(); s++) {
+            Species species = expected.species().get(s);
+            assertEquals(species.size(), actual.species().get(s).size());
+            assertEquals(species.staleness(),
+                    actual.species().get(s).staleness());
+        }
+        List<Genome> genomes = expected.getGenomeList();
+        assertEquals(genomes.size(), actual.getGenomeList().size());
+        for (int i = 0; i < genomes.size(); i++) {
+            Genome g = actual.getGenomeList().get(i);
+            assertEquals(genomes.get(i).toString(), g.toString());
+            assertEquals(genomes.get(i).getFitness(), g.getFitness(), 0.0);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Population p = population();
+        Checkpoint.write(p, file, false);
+        assertEqualPopulations(p, Checkpoint.read(file));
+    }
+
+    @Test
+    public void compressedRoundTrip() throws IOException {
+        Population p = population();
+        Checkpoint.write(p, file, true);
+        assertEqualPopulations(p, Checkpoint.read(file));
+    }
+
+    @Test
+    public void rewritesWhatItReads() throws IOException {
+        Checkpoint.write(population(), file, false);
+        Population p = Checkpoint.read(file);
+        Checkpoint.write(p, file, true);
+        assertEqualPopulations(p, Checkpoint.read(file));
+    }
+
+    @Test
+    public void rejectsAnotherFile() throws IOException {
+        Checkpoint.write(population(), file, false);
+        overwrite(0, 0);
+        assertCorrupt();
+    }
+
+    @Test
+    public void rejectsAnInvalidSize() throws IOException {
+        Checkpoint.write(population(), file, false);
+        // The size is the first value after the header
+        overwrite(12, -1);
+        assertCorrupt();
+    }
+
+    @Test
+    public void rejectsATruncatedFile() throws IOException {
+        for (boolean compress : new boolean[]{false, true}) {
+            Checkpoint.write(population(), file, compress);
+            try (RandomAccessFile f = new RandomAccessFile(file.toFile(),
+                    "rw")) {
+                f.setLength(f.length() / 2);
+            }
+            assertCorrupt();
+        }
+    }
+
+    @Test
+    public void rejectsFlippedBytes() throws IOException {
+        Checkpoint.write(population(), file, false);
+        byte[] original = Files.readAllBytes(file);
+        SplittableRandom rng = new SplittableRandom(3);
+        for (int n = 0; n < 500; n++) {
+            byte[] bytes = original.clone();
+            int at = rng.nextInt(bytes.length);
+            bytes[at] = (byte) rng.nextInt(256);
+            Files.write(file, bytes);
+            // A flip may leave a valid population, but never anything else
+            try {
+                Checkpoint.read(file);
+            } catch (IOException ex) {
+                // Reported as it should be
+            }
+        }
+    }
+
+    private void overwrite(long position, int value) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file.toFile(), "rw")) {
+            f.seek(position);
+            f.writeInt(value);
+        }
+    }
+
+    private void assertCorrupt() {
+        try {
+            Checkpoint.read(file);
+            fail("A corrupt checkpoint was read");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+}
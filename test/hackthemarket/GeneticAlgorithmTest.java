@@ -0,0 +1,173 @@
+package hackthemarket;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class GeneticAlgorithmTest {
+
+    /* The coefficients of the compatibility distance */
+    private static final double N_LENIENCY = 20;
+    private static final double Z_EXCESS = 1.0;
+    private static final double Z_DISJOINT = 1.0;
+    private static final double Z_WEIGHT = 0.4;
+
+    private static List<Node> nodes() {
+        List<Node> nodes = Util.newList();
+        nodes.add(new Node(0, Allele.Input));
+        nodes.add(new Node(1, Allele.Input));
+        nodes.add(new Node(2, Allele.Output));
+        nodes.add(new Node(3, Allele.Hidden));
+        return nodes;
+    }
+
+    /**
+     * @return a genome with a link of each innovation number below a bound,
+     * each present with the given chance
+     */
+    private static Genome random(SplittableRandom rng, int innovations,
+            double chance) {
+        Genome g = new Genome(nodes(), innovations);
+        for (int innovation = 0; innovation < innovations; innovation++) {
+            if (rng.nextDouble() < chance) {
+                g.addLink(0, 2, innovation, 4.0 * rng.nextDouble() - 2.0,
+                        true);
+            }
+        }
+        return g;
+    }
+
+    /**
+     * Counts the disjoint and excess genes of two genomes by looking up
+     * every gene of each in the other.
+     */
+    private static double bruteForce(Genome g1, Genome g2) {
+        Map<Integer, Double> genes1 = Util.newMap();
+        for (Link link : g1.links()) {
+            genes1.put(link.innov(), link.weight());
+        }
+        Map<Integer, Double> genes2 = Util.newMap();
+        for (Link link : g2.links()) {
+            genes2.put(link.innov(), link.weight());
+        }
+        double maxSize = Math.max(genes1.size(), genes2.size());
+        if (maxSize <= N_LENIENCY) {
+            maxSize = 1;
+        }
+        if (genes1.isEmpty() || genes2.isEmpty()) {
+            return Z_EXCESS * (genes1.size() + genes2.size()) / maxSize;
+        }
+        Map<Integer, Double> less = genes1;
+        Map<Integer, Double> more = genes2;
+        if (g1.topInnovation() >= g2.topInnovation()) {
+            less = genes2;
+            more = genes1;
+        }
+        int top = Math.min(g1.topInnovation(), g2.topInnovation());
+        int excess = 0;
+        for (int innovation : more.keySet()) {
+            if (innovation > top) {
+                excess++;
+            }
+        }
+        int disjoint = 0;
+        int matching = 0;
+        double wBar = 0.0;
+        for (Map.Entry<Integer, Double> gene : less.entrySet()) {
+            Double weight = more.get(gene.getKey());
+            if (weight == null) {
+                disjoint++;
+            } else {
+                wBar += Math.abs(gene.getValue() - weight);
+                matching++;
+            }
+        }
+        return Z_EXCESS * excess / maxSize + Z_DISJOINT * disjoint / maxSize
+                + (matching == 0 ? 0.0 : Z_WEIGHT * wBar / matching);
+    }
+
+    @Test
+    public void distanceMatchesBruteForce() {
+        SplittableRandom rng = new SplittableRandom(7);
+        for (int n = 0; n < 2000; n++) {
+            Genome g1 = random(rng, 1 + rng.nextInt(60), rng.nextDouble());
+            Genome g2 = random(rng, 1 + rng.nextInt(60), rng.nextDouble());
+            // With equal top innovations the second genome is the one
+            // whose unmatched genes are disjoint, so the order matters
+            assertEquals(bruteForce(g2, g1), GeneticAlgorithm.distance(g2, g1,
+                    Double.POSITIVE_INFINITY), 1e-9);
+            double expected = bruteForce(g1, g2);
+            assertEquals(expected, GeneticAlgorithm.distance(g1, g2,
+                    Double.POSITIVE_INFINITY), 1e-9);
+            // Counting stops at the limit, past which only the side matters
+            double limit = 4.0 * rng.nextDouble();
+            assertEquals(expected >= limit,
+                    GeneticAlgorithm.distance(g1, g2, limit) >= limit);
+        }
+    }
+
+    @Test
+    public void innovateNumbersIdenticalMutationsAlike() {
+        GeneticAlgorithm GA = new GeneticAlgorithm(new Bound(-2.0, 2.0));
+        Genome base = new Genome(nodes(), 2);
+        base.addLink(0, 2, Link.NO_INNOVATION, 0.5, true);
+        base.addLink(1, 2, Link.NO_INNOVATION, 0.5, true);
+        GA.innovate(base);
+        int first = base.innov(0);
+        int second = base.innov(1);
+        assertNotEquals(first, second);
+
+        // A batch of children, numbered one after another
+        Genome[] batch = new Genome[4];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = base.copy();
+        }
+        batch[0].addLink(0, 3, Link.NO_INNOVATION, 1.0, true);
+        batch[0].addLink(3, 2, Link.NO_INNOVATION, 1.0, true);
+        batch[1].addLink(1, 3, Link.NO_INNOVATION, 1.0, true);
+        batch[2].addLink(3, 2, Link.NO_INNOVATION, 1.0, true);
+        batch[2].addLink(0, 3, Link.NO_INNOVATION, 1.0, true);
+        for (Genome g : batch) {
+            GA.innovate(g);
+        }
+
+        for (Genome g : batch) {
+            for (int i = 0; i < g.numLinks(); i++) {
+                assertTrue(g.innov(i) != Link.NO_INNOVATION);
+                if (i > 0) {
+                    assertTrue(g.innov(i - 1) < g.innov(i));
+                }
+            }
+            // The inherited genes keep their numbers
+            assertEquals(first, innovation(g, 0, 2));
+            assertEquals(second, innovation(g, 1, 2));
+        }
+        assertEquals(2, batch[3].numLinks());
+        assertEquals(innovation(batch[0], 0, 3), innovation(batch[2], 0, 3));
+        assertEquals(innovation(batch[0], 3, 2), innovation(batch[2], 3, 2));
+        assertNotEquals(innovation(batch[0], 0, 3),
+                innovation(batch[0], 3, 2));
+        assertNotEquals(innovation(batch[0], 0, 3),
+                innovation(batch[1], 1, 3));
+        assertNotEquals(innovation(batch[0], 3, 2),
+                innovation(batch[1], 1, 3));
+        assertEquals(GA.history().get(0, 3), innovation(batch[0], 0, 3));
+    }
+
+    /**
+     * @return the innovation number of the link between two neurons
+     */
+    private static int innovation(Genome g, int in, int out) {
+        for (int i = 0; i < g.numLinks(); i++) {
+            if (g.in(i) == in && g.out(i) == out) {
+                return g.innov(i);
+            }
+        }
+        throw new AssertionError("No link from " + in + " to " + out);
+    }
+
+}
@@ -0,0 +1,77 @@
+package hackthemarket;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class GenomeTest {
+
+    private static Genome empty() {
+        List<Node> nodes = Util.newList();
+        nodes.add(new Node(0, Allele.Input));
+        nodes.add(new Node(1, Allele.Output));
+        return new Genome(nodes, 0);
+    }
+
+    @Test
+    public void addLinkKeepsLinksSortedByInnovation() {
+        SplittableRandom rng = new SplittableRandom(6);
+        Genome g = empty();
+        // More links than the initial capacity, so the arrays must grow
+        for (int n = 0; n < 200; n++) {
+            int innovation = rng.nextInt(50);
+            g.addLink(innovation, innovation + 1, innovation, innovation,
+                    innovation % 2 == 0);
+        }
+        assertEquals(200, g.numLinks());
+        for (int i = 0; i < g.numLinks(); i++) {
+            int innovation = g.innov(i);
+            if (i > 0) {
+                assertTrue(g.innov(i - 1) <= innovation);
+            }
+            // The other genes moved along with the innovation number
+            assertEquals(innovation, g.in(i));
+            assertEquals(innovation + 1, g.out(i));
+            assertEquals(innovation, g.weight(i), 0.0);
+            assertEquals(innovation % 2 == 0, g.isEnabled(i));
+        }
+        assertEquals(g.innov(g.numLinks() - 1), g.topInnovation());
+    }
+
+    @Test
+    public void addLinkPutsEqualInnovationsInArrivalOrder() {
+        Genome g = empty();
+        g.addLink(0, 1, 5, 0.0, true);
+        g.addLink(0, 1, 3, 1.0, true);
+        g.addLink(0, 1, Link.NO_INNOVATION, 2.0, true);
+        g.addLink(0, 1, 3, 3.0, false);
+        g.addLink(0, 1, Link.NO_INNOVATION, 4.0, true);
+        int[] innovations = {Link.NO_INNOVATION, Link.NO_INNOVATION, 3, 3, 5};
+        double[] weights = {2.0, 4.0, 1.0, 3.0, 0.0};
+        assertEquals(innovations.length, g.numLinks());
+        for (int i = 0; i < innovations.length; i++) {
+            assertEquals(innovations[i], g.innov(i));
+            assertEquals(weights[i], g.weight(i), 0.0);
+        }
+        assertEquals(false, g.isEnabled(3));
+    }
+
+    @Test
+    public void copyKeepsTheLinks() {
+        Genome g = empty();
+        for (int n = 20; n > 0; n--) {
+            g.addLink(0, 1, n, n, n % 3 != 0);
+        }
+        Genome copy = g.copy();
+        g.setWeight(0, -1.0);
+        assertEquals(g.numLinks(), copy.numLinks());
+        for (int i = 0; i < copy.numLinks(); i++) {
+            assertEquals(i + 1, copy.innov(i));
+            assertEquals(i + 1, copy.weight(i), 0.0);
+            assertEquals((i + 1) % 3 != 0, copy.isEnabled(i));
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package hackthemarket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HallOfFameTest {
+
+    private static final int CHAMPIONS = 300;
+
+    private Path directory;
+
+    private Path base;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hall");
+        base = directory.resolve("hall");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(directory.resolve("hall.idx"));
+        Files.deleteIfExists(directory.resolve("hall.dat"));
+        Files.delete(directory);
+    }
+
+    /**
+     * @return a champion whose links tell its generation
+     */
+    private static Genome champion(int generation, double fitness) {
+        List<Node> nodes = Util.newList();
+        nodes.add(new Node(0, Allele.Input));
+        nodes.add(new Node(1, Allele.Output));
+        Genome g = new Genome(nodes, 0);
+        for (int i = 0; i <= generation % 7; i++) {
+            g.addLink(0, 1, i, generation, true);
+        }
+        g.setFitness(fitness);
+        return g;
+    }
+
+    /**
+     * Archives the champions of every third generation, more than fit in
+     * the initial mapping of the index.
+     *
+     * @return the fitnesses of the champions
+     */
+    private static double[] fill(HallOfFame hall) throws IOException {
+        SplittableRandom rng = new SplittableRandom(20);
+        double[] fitnesses = new double[CHAMPIONS];
+        for (int i = 0; i < CHAMPIONS; i++) {
+            fitnesses[i] = 100.0 * rng.nextDouble();
+            hall.append(3 * i, champion(3 * i, fitnesses[i]));
+        }
+        return fitnesses;
+    }
+
+    @Test
+    public void findsChampionsByGeneration() throws IOException {
+        try (HallOfFame hall = new HallOfFame(base)) {
+            double[] fitnesses = fill(hall);
+            assertEquals(CHAMPIONS, hall.size());
+            for (int i = 0; i < CHAMPIONS; i++) {
+                assertEquals(3 * i, hall.generation(i));
+                assertEquals(fitnesses[i], hall.fitness(i), 0.0);
+                assertEquals(i, hall.find(3 * i));
+                assertEquals(-1, hall.find(3 * i + 1));
+            }
+            assertEquals(-1, hall.find(-1));
+            assertEquals(-1, hall.find(3 * CHAMPIONS));
+            Genome g = hall.genome(123);
+            assertEquals(champion(3 * 123, fitnesses[123]).toString(),
+                    g.toString());
+            assertEquals(fitnesses[123], g.getFitness(), 0.0);
+        }
+    }
+
+    @Test
+    public void findsChampionsByFitness() throws IOException {
+        try (HallOfFame hall = new HallOfFame(base)) {
+            assertEquals(-1, hall.fittest());
+            double[] fitnesses = fill(hall);
+            double best = Double.NEGATIVE_INFINITY;
+            int fittest = -1;
+            for (int i = 0; i < CHAMPIONS; i++) {
+                if (fitnesses[i] > best) {
+                    best = fitnesses[i];
+                    fittest = i;
+                }
+                assertEquals(best, hall.best(i), 0.0);
+                // No earlier champion reached the running best
+                assertEquals(fittest, hall.first(best));
+            }
+            assertEquals(fittest, hall.fittest());
+            assertEquals(0, hall.first(Double.NEGATIVE_INFINITY));
+            assertEquals(-1, hall.first(best + 1.0));
+        }
+    }
+
+    @Test
+    public void keepsChampionsWhenReopened() throws IOException {
+        double[] fitnesses;
+        try (HallOfFame hall = new HallOfFame(base)) {
+            fitnesses = fill(hall);
+        }
+        try (HallOfFame hall = new HallOfFame(base)) {
+            assertEquals(CHAMPIONS, hall.size());
+            assertEquals(3 * (CHAMPIONS - 1), hall.generation(CHAMPIONS - 1));
+            assertEquals(fitnesses[CHAMPIONS - 1],
+                    hall.genome(CHAMPIONS - 1).getFitness(), 0.0);
+            hall.append(3 * CHAMPIONS, champion(3 * CHAMPIONS, 1.0));
+            assertEquals(CHAMPIONS, hall.find(3 * CHAMPIONS));
+        }
+    }
+
+    @Test
+    public void refusesAnOlderGeneration() throws IOException {
+        try (HallOfFame hall = new HallOfFame(base)) {
+            hall.append(5, champion(5, 1.0));
+            for (int generation : new int[]{5, 4}) {
+                try {
+                    hall.append(generation, champion(generation, 2.0));
+                    fail("Generation " + generation + " was archived");
+                } catch (IllegalArgumentException ex) {
+                    // Expected
+                }
+            }
+            assertEquals(1, hall.size());
+        }
+    }
+
+    @Test
+    public void rewindsToAGeneration() throws IOException {
+        try (HallOfFame hall = new HallOfFame(base)) {
+            double[] fitnesses = fill(hall);
+            long size = Files.size(directory.resolve("hall.dat"));
+            hall.rewind(3 * CHAMPIONS);
+            assertEquals(CHAMPIONS, hall.size());
+            // Between archived generations, the next one is dropped too
+            hall.rewind(3 * 100 - 1);
+            assertEquals(100, hall.size());
+            assertEquals(3 * 99, hall.generation(99));
+            assertEquals(-1, hall.find(3 * 100));
+            long rewound = Files.size(directory.resolve("hall.dat"));
+            assertEquals(true, rewound < size);
+            hall.append(3 * 100 - 1, champion(1, 5.0));
+            assertEquals(101, hall.size());
+            assertEquals(champion(3 * 99, fitnesses[99]).toString(),
+                    hall.genome(99).toString());
+            assertEquals(champion(1, 5.0).toString(),
+                    hall.genome(100).toString());
+            hall.rewind(0);
+            assertEquals(0, hall.size());
+            assertEquals(0, Files.size(directory.resolve("hall.dat")));
+        }
+    }
+
+}